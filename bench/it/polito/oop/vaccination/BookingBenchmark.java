@@ -0,0 +1,95 @@
+package it.polito.oop.vaccination;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures live booking throughput of {@link ConcurrentVaccines} with a
+ * growing number of threads competing for the slots of a few hubs, one
+ * booking in ten being cancelled, then checks that no slot is overbooked
+ * and that the bookings agree with the allocated persons.
+ *
+ * Usage: {@code BookingBenchmark [persons] [hubs] [max threads] [seconds]}.
+ */
+public class BookingBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int hubs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        double seconds = args.length > 3 ? Double.parseDouble(args[3]) : 2;
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            ConcurrentVaccines v = new ConcurrentVaccines();
+            Random rg = new Random(1971);
+            for (int i = 0; i < n; i++)
+                v.addPerson("Mario", "Rossi", SsnIndexBenchmark.ssn(i), 1922 + rg.nextInt(100));
+            v.setAgeIntervals(30, 40, 50, 60, 70, 80);
+            List<String> names = new ArrayList<>();
+            for (int h = 0; h < hubs; h++) {
+                names.add("Hub " + h);
+                v.defineHub("Hub " + h);
+                v.setStaff("Hub " + h, 1 + rg.nextInt(8), 1 + rg.nextInt(8), 1 + rg.nextInt(5));
+            }
+            v.setHours(8, 8, 8, 8, 8, 6, 4);
+
+            AtomicBoolean stop = new AtomicBoolean();
+            AtomicLong booked = new AtomicLong();
+            AtomicLong refused = new AtomicLong();
+            AtomicLong cancelled = new AtomicLong();
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int seed = t;
+                workers.add(new Thread(() -> {
+                    Random wg = new Random(seed);
+                    while (!stop.get()) {
+                        String ssn = SsnIndexBenchmark.ssn(wg.nextInt(n));
+                        if (v.book(ssn, names.get(wg.nextInt(hubs)), wg.nextInt(7)) == null) {
+                            refused.incrementAndGet();
+                        } else {
+                            booked.incrementAndGet();
+                            if (wg.nextInt(10) == 0 && v.cancel(ssn))
+                                cancelled.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            long t0 = System.nanoTime();
+            workers.forEach(Thread::start);
+            Thread.sleep((long) (seconds * 1000));
+            stop.set(true);
+            for (Thread w : workers)
+                w.join();
+            long t1 = System.nanoTime();
+
+            long inCalendar = 0;
+            long inPlan = 0;
+            for (String hub : names) {
+                int hourly = v.estimateHourlyCapacity(hub);
+                for (int d = 0; d < 7; d++) {
+                    List<Integer> slots = v.getSlotBookings(hub, d);
+                    for (int s = 0; s < slots.size(); s++) {
+                        if (slots.get(s) > SlotCalendar.capacity(hourly, s))
+                            throw new IllegalStateException(hub + " day " + d + " slot " + s + " overbooked");
+                        inCalendar += slots.get(s);
+                    }
+                    for (String ssn : v.allocatedToHub(hub, d)) {
+                        if (v.getAppointment(ssn) == null)
+                            throw new IllegalStateException(ssn + " allocated without appointment");
+                    }
+                    inPlan += v.allocatedToHub(hub, d).size();
+                }
+            }
+            long allocated = Math.round(v.propAllocated() * n);
+            long expected = booked.get() - cancelled.get();
+            if (inCalendar != expected || inPlan != expected || allocated != expected)
+                throw new IllegalStateException("calendar " + inCalendar + ", plan " + inPlan
+                        + ", allocated " + allocated + ", expected " + expected);
+            System.out.printf("%2d threads: %.2f M bookings/s, %d booked, %d refused, %d cancelled%n", threads,
+                    (booked.get() + refused.get()) / ((t1 - t0) / 1e3), booked.get(), refused.get(), cancelled.get());
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package it.polito.oop.vaccination;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the query throughput of {@link ConcurrentVaccines} with a
+ * growing number of reader threads, while a writer keeps planning and
+ * clearing weeks, and checks that no reader sees a plan half applied.
+ *
+ * Usage: {@code ConcurrentReadBenchmark [persons] [hubs] [max readers] [seconds]}.
+ */
+public class ConcurrentReadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int hubs = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int maxReaders = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        double seconds = args.length > 3 ? Double.parseDouble(args[3]) : 2;
+
+        ConcurrentVaccines v = new ConcurrentVaccines();
+        Random rg = new Random(1971);
+        for (int i = 0; i < n; i++)
+            v.addPerson("Mario", "Rossi", SsnIndexBenchmark.ssn(i), 1922 + rg.nextInt(100));
+        v.setAgeIntervals(30, 40, 50, 60, 70, 80);
+        for (int h = 0; h < hubs; h++) {
+            v.defineHub("Hub " + h);
+            v.setStaff("Hub " + h, 1 + rg.nextInt(8), 1 + rg.nextInt(8), 1 + rg.nextInt(5));
+        }
+        v.setHours(8, 8, 8, 8, 8, 6, 4);
+        int planned = v.weekAllocate().stream().mapToInt(day -> day.values().stream().mapToInt(List::size).sum()).sum();
+        System.out.printf("%d persons, %d allocated per week%n", n, planned);
+
+        for (int readers = 1; readers <= maxReaders; readers *= 2) {
+            AtomicBoolean stop = new AtomicBoolean();
+            LongAdder queries = new LongAdder();
+            LongAdder torn = new LongAdder();
+            List<Thread> threads = new ArrayList<>();
+            for (int r = 0; r < readers; r++) {
+                int seed = r;
+                threads.add(new Thread(() -> {
+                    Random qg = new Random(seed);
+                    long count = 0;
+                    while (!stop.get()) {
+                        v.getAge(SsnIndexBenchmark.ssn(qg.nextInt(n)));
+                        double p = v.propAllocated();
+                        if (p != 0 && Math.abs(p * n - planned) > 0.5)
+                            torn.increment();
+                        count += 2;
+                    }
+                    queries.add(count);
+                }));
+            }
+            Thread writer = new Thread(() -> {
+                while (!stop.get()) {
+                    v.clearAllocation();
+                    v.weekAllocate();
+                }
+            });
+            long t0 = System.nanoTime();
+            threads.forEach(Thread::start);
+            writer.start();
+            Thread.sleep((long) (seconds * 1000));
+            stop.set(true);
+            for (Thread t : threads)
+                t.join();
+            writer.join();
+            long t1 = System.nanoTime();
+            System.out.printf("%2d readers: %.2f M queries/s, %d torn reads%n",
+                    readers, queries.sum() / ((t1 - t0) / 1e3), torn.sum());
+        }
+    }
+}
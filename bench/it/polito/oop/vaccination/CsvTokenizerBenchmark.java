@@ -0,0 +1,70 @@
+package it.polito.oop.vaccination;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the in place {@link CsvTokenizer} with the former
+ * {@code split(",")} based parsing of person lines.
+ * The tokenizer side extracts what the loaders store: packed SSN, names and year.
+ *
+ * Usage: {@code CsvTokenizerBenchmark [lines] [rounds]}
+ */
+public class CsvTokenizerBenchmark {
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Random rg = new Random(1971);
+        StringBuilder sb = new StringBuilder();
+        int[] starts = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            starts[i] = sb.length();
+            sb.append("RSSMRA").append(10 + rg.nextInt(90)).append("H501")
+              .append((char) ('A' + rg.nextInt(26))).append((char) ('A' + rg.nextInt(26)))
+              .append(",Rossi,Mario,").append(1922 + rg.nextInt(100));
+        }
+        starts[n] = sb.length();
+        String text = sb.toString();
+        char[] chars = text.toCharArray();
+        String[] lines = new String[n];
+        for (int i = 0; i < n; i++)
+            lines[i] = text.substring(starts[i], starts[i + 1]);
+
+        for (int r = 0; r < rounds; r++) {
+            long a0 = allocated();
+            long t0 = System.nanoTime();
+            long sum = 0;
+            for (String line : lines) {
+                List<String> fields = Arrays.stream(line.split(",")).collect(Collectors.toList());
+                if (fields.size() == 4)
+                    sum += new Person(fields.get(2), fields.get(1), fields.get(0), Integer.parseInt(fields.get(3))).getYear();
+            }
+            long t1 = System.nanoTime();
+            long a1 = allocated();
+
+            CsvTokenizer tk = new CsvTokenizer();
+            long packed = 0;
+            for (int i = 0; i < n; i++) {
+                if (tk.split(chars, starts[i], starts[i + 1])) {
+                    packed += tk.ssnHi(chars) + tk.ssnLo(chars) + tk.first(chars).length() + tk.last(chars).length();
+                    sum -= tk.year();
+                }
+            }
+            long t2 = System.nanoTime();
+            long a2 = allocated();
+
+            System.out.printf("round %d: split %6.1f ms %5d B/line | tokenizer %6.1f ms %5d B/line (check %d %d)%n",
+                    r, (t1 - t0) / 1e6, (a1 - a0) / n, (t2 - t1) / 1e6, (a2 - a1) / n, sum, packed);
+        }
+    }
+
+    private static long allocated() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,340 @@
+package it.polito.oop.vaccination;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Benchmark suite of the {@link Vaccines} facade at population scale: the
+ * registrations and loads of R1 and R3, the interval queries, the
+ * allocations and clears of R5 and the statistics of R6 of {@code TestApp},
+ * for every combination of a few population sizes and numbers of hubs.
+ * <p>
+ * Every benchmark runs {@value #WARMUPS} warm-up iterations and
+ * {@value #ITERATIONS} measured ones of at least {@value #ITERATION_MS} ms
+ * each, and reports the average time per operation with the half-width of
+ * its 99.9% confidence interval, as JMH does in average time mode. Setting
+ * up a call (e.g. clearing the allocations before allocating again) takes
+ * part of the iteration but is not timed. Persons are generated from a fixed seed as
+ * {@code TestApp.generateAndAddPerson} does (see {@link Dataset}), so runs
+ * of different builds measure the same work.
+ * <p>
+ * Usage: {@code FacadeBenchmark [benchmarks] [persons,...] [hubs,...] [results.csv]},
+ * where {@code benchmarks} is a regular expression matched against the
+ * benchmark names ({@code .} for all), e.g.
+ * {@code FacadeBenchmark allocate 10000,1000000,10000000 10,100,1000}.
+ * The scores are appended to the CSV file, if given, to compare builds.
+ * 10M persons need a large heap, e.g. {@code -Xmx12g}.
+ */
+public class FacadeBenchmark {
+    private static final int WARMUPS = 2;
+    private static final int ITERATIONS = 5;
+    private static final int ITERATION_MS = 500;
+    /** Quantile of the normal distribution for a 99.9% confidence interval. */
+    private static final double Z = 3.291;
+
+    private final Pattern filter;
+    private final PrintWriter csv;
+    /** Results of the calls, so that none is optimized away. */
+    private long sink;
+    /** Read before every call of a loop, so that the JIT cannot hoist the call out of it. */
+    private volatile int fence;
+
+    private FacadeBenchmark(Pattern filter, PrintWriter csv) {
+        this.filter = filter;
+        this.csv = csv;
+    }
+
+    /**
+     * A timed call, with its untimed setup.
+     */
+    private interface Step {
+        default void prepare() throws Exception {
+        }
+
+        /**
+         * @return number of operations made
+         */
+        long run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Pattern filter = Pattern.compile(args.length > 0 ? args[0] : ".");
+        int[] persons = sizes(args.length > 1 ? args[1] : "10000,1000000");
+        int[] hubs = sizes(args.length > 2 ? args[2] : "10,100,1000");
+        Arrays.sort(hubs);
+        PrintWriter csv = null;
+        if (args.length > 3) {
+            Path file = Paths.get(args[3]);
+            boolean header = !Files.exists(file);
+            csv = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+            if (header)
+                csv.println("benchmark,persons,hubs,ns_per_op,error_ns");
+        }
+        try {
+            FacadeBenchmark b = new FacadeBenchmark(filter, csv);
+            System.out.printf("%-24s %9s %5s %12s %11s  %s%n", "Benchmark", "Persons", "Hubs", "Score", "Error", "Units");
+            for (int n : persons)
+                b.run(new Dataset(n), hubs);
+            System.out.println("(sink " + b.sink + ")");
+        } finally {
+            if (csv != null)
+                csv.close();
+        }
+    }
+
+    private static int[] sizes(String list) {
+        return Arrays.stream(list.split(",")).mapToInt(Integer::parseInt).toArray();
+    }
+
+    private void run(Dataset data, int[] hubCounts) throws Exception {
+        int n = data.size();
+        measure("addPerson", n, 0, new Step() {
+            private Vaccines v;
+
+            @Override
+            public void prepare() {
+                v = new Vaccines();
+            }
+
+            @Override
+            public long run() {
+                for (int i = 0; i < n; i++)
+                    v.addPerson(data.firsts[i], data.lasts[i], data.ssns[i], data.years[i]);
+                return n;
+            }
+        });
+        if (filter.matcher("loadPeople").find()) {
+            Path file = data.csv();
+            try {
+                measure("loadPeople", n, 0, new Step() {
+                    private Vaccines v;
+
+                    @Override
+                    public void prepare() {
+                        v = new Vaccines();
+                    }
+
+                    @Override
+                    public long run() throws Exception {
+                        v.loadPeople(file);
+                        return n;
+                    }
+                });
+            } finally {
+                Files.delete(file);
+            }
+        }
+
+        Vaccines v = new Vaccines();
+        for (int i = 0; i < n; i++)
+            v.addPerson(data.firsts[i], data.lasts[i], data.ssns[i], data.years[i]);
+        if (v.countPeople() != n)
+            throw new IllegalStateException("duplicate SSNs in the dataset");
+        v.setAgeIntervals(30, 40, 50, 60, 70, 80);
+        v.setHours(8, 8, 8, 8, 8, 6, 4);
+        String[] intervals = v.getAgeIntervals().toArray(new String[0]);
+        measure("getInInterval", n, 0, () -> {
+            for (String interval : intervals)
+                sink += fence + v.getInInterval(interval).size();
+            return intervals.length;
+        });
+
+        Random rg = new Random(1971);
+        int defined = 0;
+        for (int hubs : hubCounts) {
+            for (; defined < hubs; defined++) {
+                v.defineHub("Hub " + defined);
+                v.setStaff("Hub " + defined, 1 + rg.nextInt(8), 1 + rg.nextInt(8), 1 + rg.nextInt(5));
+            }
+            run(v, n, hubs);
+        }
+    }
+
+    private void run(Vaccines v, int n, int hubs) throws Exception {
+        String[] hubNames = v.getHubs().toArray(new String[0]);
+        measure("allocate", n, hubs, new Step() {
+            @Override
+            public void prepare() {
+                v.clearAllocation();
+            }
+
+            @Override
+            public long run() {
+                for (String hub : hubNames)
+                    for (int d = 0; d < AllocationIndex.DAYS; d++)
+                        sink += v.allocate(hub, d).size();
+                return hubNames.length * AllocationIndex.DAYS;
+            }
+        });
+        measure("weekAllocate", n, hubs, new Step() {
+            @Override
+            public void prepare() {
+                v.clearAllocation();
+            }
+
+            @Override
+            public long run() {
+                sink += v.weekAllocate().size();
+                return 1;
+            }
+        });
+        measure("clearAllocation", n, hubs, new Step() {
+            @Override
+            public void prepare() {
+                v.weekAllocate();
+            }
+
+            @Override
+            public long run() {
+                v.clearAllocation();
+                return 1;
+            }
+        });
+
+        v.clearAllocation();
+        v.weekAllocate();
+        measure("propAllocated", n, hubs, () -> {
+            for (int k = 0; k < 1000; k++)
+                sink += fence + (long) (v.propAllocated() * 1000);
+            return 1000;
+        });
+        measure("propAllocatedAge", n, hubs, () -> {
+            for (int k = 0; k < 1000; k++)
+                sink += fence + v.propAllocatedAge().size();
+            return 1000;
+        });
+        measure("distributionAllocated", n, hubs, () -> {
+            for (int k = 0; k < 1000; k++)
+                sink += fence + v.distributionAllocated().size();
+            return 1000;
+        });
+        v.clearAllocation();
+    }
+
+    private void measure(String name, int persons, int hubs, Step step) throws Exception {
+        if (!filter.matcher(name).find())
+            return;
+        double[] scores = new double[ITERATIONS];
+        for (int it = -WARMUPS; it < ITERATIONS; it++) {
+            long timed = 0;
+            long ops = 0;
+            long start = System.nanoTime();
+            while (ops == 0 || System.nanoTime() - start < ITERATION_MS * 1_000_000L) {
+                step.prepare();
+                long t0 = System.nanoTime();
+                ops += step.run();
+                timed += System.nanoTime() - t0;
+            }
+            if (it >= 0)
+                scores[it] = (double) timed / ops;
+        }
+        double mean = Arrays.stream(scores).average().orElse(0);
+        double var = Arrays.stream(scores).map(s -> (s - mean) * (s - mean)).sum() / (ITERATIONS - 1);
+        double error = Z * Math.sqrt(var / ITERATIONS);
+
+        String units = "ns/op";
+        double scale = 1;
+        if (mean >= 1e6) {
+            units = "ms/op";
+            scale = 1e6;
+        } else if (mean >= 1e3) {
+            units = "us/op";
+            scale = 1e3;
+        }
+        System.out.printf("%-24s %9d %5s %12.3f +- %9.3f  %s%n", name, persons, hubs == 0 ? "-" : hubs,
+                mean / scale, error / scale, units);
+        if (csv != null) {
+            csv.printf("%s,%d,%d,%.1f,%.1f%n", name, persons, hubs, mean, error);
+            csv.flush();
+        }
+    }
+
+    /**
+     * Persons generated as {@code TestApp.generateAndAddPerson} does, from
+     * a fixed seed: first and last names and birth years at random, the SSN
+     * made of the codes of the last and first names, the year, a place and
+     * two check letters. The place and check letters encode the index of
+     * the person, so that up to 17M SSNs are unique without keeping a set
+     * of them.
+     */
+    static final class Dataset {
+        private static final String[] FIRSTS = {"Ali", "Anna", "Enrica", "Giorgio", "Luca", "Lucia", "Mario", "Miriam", "Paola", "Xavier"};
+        private static final String[] LASTS = {"Abaco", "Draghi", "Letto", "Melone", "Mattei", "Russo", "Neri", "Rossi", "Verdi", "Xavier"};
+
+        final String[] firsts;
+        final String[] lasts;
+        final String[] ssns;
+        final int[] years;
+
+        Dataset(int n) {
+            if (n > 26 * 1000 * 26 * 26)
+                throw new IllegalArgumentException("too many persons: " + n);
+            firsts = new String[n];
+            lasts = new String[n];
+            ssns = new String[n];
+            years = new int[n];
+            Random rg = new Random(1971);
+            StringBuilder ssn = new StringBuilder();
+            for (int i = 0; i < n; i++) {
+                int first = rg.nextInt(FIRSTS.length);
+                int last = rg.nextInt(LASTS.length);
+                firsts[i] = FIRSTS[first];
+                lasts[i] = LASTS[last];
+                years[i] = 1922 + rg.nextInt(100);
+                ssn.setLength(0);
+                ssn.append(code(LASTS[last])).append(code(FIRSTS[first]));
+                ssn.append((char) ('0' + years[i] / 10 % 10)).append((char) ('0' + years[i] % 10));
+                int k = i;
+                char cin2 = (char) ('A' + k % 26);
+                k /= 26;
+                char cin1 = (char) ('A' + k % 26);
+                k /= 26;
+                ssn.append((char) ('A' + k / 1000));
+                ssn.append((char) ('0' + k / 100 % 10)).append((char) ('0' + k / 10 % 10)).append((char) ('0' + k % 10));
+                ssn.append(cin1).append(cin2);
+                ssns[i] = ssn.toString();
+            }
+        }
+
+        int size() {
+            return ssns.length;
+        }
+
+        /**
+         * Code of a name in a codice fiscale: its first three consonants,
+         * followed by its vowels if they are fewer.
+         */
+        private static String code(String name) {
+            name = name.toUpperCase();
+            String consonants = name.replaceAll("[AEIOU ]", "");
+            String vowels = name.replaceAll("[^AEIOU]", "");
+            return (consonants + vowels).substring(0, 3);
+        }
+
+        /**
+         * Writes the persons to a temporary CSV file, in the format of {@link Vaccines#loadPeople}.
+         */
+        Path csv() throws IOException {
+            Path file = Files.createTempFile("people", ".csv");
+            try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                out.write(Vaccines.HEADER);
+                out.newLine();
+                for (int i = 0; i < ssns.length; i++) {
+                    out.write(ssns[i] + "," + lasts[i] + "," + firsts[i] + "," + years[i]);
+                    out.newLine();
+                }
+            }
+            return file;
+        }
+    }
+}
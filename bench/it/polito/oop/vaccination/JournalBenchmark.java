@@ -0,0 +1,83 @@
+package it.polito.oop.vaccination;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures durable registrations on a journaled {@link ConcurrentVaccines}
+ * from a growing number of threads: every registration returns only once
+ * it is forced to the disk, so with one thread every registration pays for
+ * a force, while concurrent ones share it (group commit). Then measures
+ * how long opening the system again takes, replaying the journal, and
+ * after a checkpoint.
+ *
+ * Usage: {@code JournalBenchmark [registrations] [max threads] [directory]};
+ * the directory should be on the disk to measure, the default one is the
+ * temporary directory.
+ */
+public class JournalBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        Path dir = args.length > 2 ? Files.createTempDirectory(Paths.get(args[2]), "journal")
+                : Files.createTempDirectory("journal");
+        Path snapshot = dir.resolve("vaccines.snapshot");
+        Path journal = dir.resolve("vaccines.journal");
+        try {
+            for (int threads = 1; threads <= maxThreads; threads *= 4) {
+                Files.deleteIfExists(snapshot);
+                Files.deleteIfExists(journal);
+                int count = threads == 1 ? Math.min(n, 2_000) : n;
+                double rate;
+                try (ConcurrentVaccines v = ConcurrentVaccines.open(snapshot, journal, false)) {
+                    rate = register(v, count, threads);
+                }
+                System.out.printf("%2d threads: %.0f durable registrations/s, journal %.1f MB%n", threads, rate,
+                        Files.size(journal) / 1e6);
+            }
+
+            long t0 = System.nanoTime();
+            int people;
+            try (ConcurrentVaccines v = ConcurrentVaccines.open(snapshot, journal, false)) {
+                people = v.countPeople();
+                long t1 = System.nanoTime();
+                System.out.printf("replayed %d registrations in %.0f ms%n", people, (t1 - t0) / 1e6);
+                v.checkpoint();
+            }
+            t0 = System.nanoTime();
+            try (ConcurrentVaccines v = ConcurrentVaccines.open(snapshot, journal, false)) {
+                if (v.countPeople() != people)
+                    throw new IllegalStateException("checkpoint lost persons");
+            }
+            System.out.printf("restored the checkpoint in %.0f ms%n", (System.nanoTime() - t0) / 1e6);
+        } finally {
+            Files.deleteIfExists(snapshot);
+            Files.deleteIfExists(journal);
+            Files.delete(dir);
+        }
+    }
+
+    private static double register(ConcurrentVaccines v, int n, int threads) throws InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            workers.add(new Thread(() -> {
+                Random rg = new Random(seed);
+                for (int i = next.getAndIncrement(); i < n; i = next.getAndIncrement())
+                    v.addPerson("Mario", "Rossi", SsnIndexBenchmark.ssn(i), 1922 + rg.nextInt(100));
+            }));
+        }
+        long t0 = System.nanoTime();
+        workers.forEach(Thread::start);
+        for (Thread w : workers)
+            w.join();
+        return n / ((System.nanoTime() - t0) / 1e9);
+    }
+}
@@ -0,0 +1,89 @@
+package it.polito.oop.vaccination;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compares exporting the weekly plan as CSV from the allocation lists
+ * ({@code allocatedToHub}, the lists {@code weekAllocate} returns),
+ * formatting every record as a string, with streaming it from the
+ * allocations by {@link Vaccines#exportPlan}, to one file and to one file
+ * per hub. Reports time and bytes allocated by the exporting thread.
+ *
+ * Usage: {@code PlanExportBenchmark [persons] [hubs] [parallelism]}.
+ */
+public class PlanExportBenchmark {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private interface Export {
+        void run() throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int hubs = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int parallelism = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        ConcurrentVaccines v = ServerLoadGenerator.system(n, hubs);
+        Path file = Files.createTempFile("plan", ".csv");
+        Path dir = Files.createTempDirectory("plan");
+        try {
+            for (int round = 0; round < 3; round++) {
+                measure("lists and writer", file, () -> {
+                    try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                        out.write(PlanExport.HEADER);
+                        out.newLine();
+                        for (String hub : v.getHubs())
+                            for (int d = 0; d < AllocationIndex.DAYS; d++)
+                                for (String ssn : v.allocatedToHub(hub, d))
+                                    out.write(hub + "," + d + "," + ssn + "\n");
+                    }
+                });
+                measure("streamed to a channel", file, () -> {
+                    try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE,
+                            StandardOpenOption.TRUNCATE_EXISTING)) {
+                        v.exportPlan(out);
+                    }
+                });
+                measure("one file per hub", dir, () -> v.exportPlan(dir, parallelism));
+            }
+        } finally {
+            Files.delete(file);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path f : files)
+                    Files.delete(f);
+            }
+            Files.delete(dir);
+        }
+    }
+
+    private static void measure(String name, Path output, Export export) throws IOException {
+        long id = Thread.currentThread().getId();
+        long bytes = THREADS.getThreadAllocatedBytes(id);
+        long t0 = System.nanoTime();
+        export.run();
+        long t1 = System.nanoTime();
+        bytes = THREADS.getThreadAllocatedBytes(id) - bytes;
+        System.out.printf("%-22s %7.0f ms, %8.1f MB allocated, %7.1f MB written%n", name, (t1 - t0) / 1e6,
+                bytes / 1e6, size(output) / 1e6);
+    }
+
+    private static long size(Path output) throws IOException {
+        if (!Files.isDirectory(output))
+            return Files.size(output);
+        long size = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(output)) {
+            for (Path f : files)
+                size += Files.size(f);
+        }
+        return size;
+    }
+}
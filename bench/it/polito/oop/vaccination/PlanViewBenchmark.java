@@ -0,0 +1,70 @@
+package it.polito.oop.vaccination;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares the plan queries of the frozen {@link PlanView} with the same
+ * queries on {@link ConcurrentVaccines}, from a growing number of threads:
+ * where a person is allocated, and who is allocated to a hub on a day.
+ *
+ * Usage: {@code PlanViewBenchmark [persons] [hubs] [max threads] [seconds]}.
+ */
+public class PlanViewBenchmark {
+
+    private interface Query {
+        int run(Random rg);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int hubs = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        double seconds = args.length > 3 ? Double.parseDouble(args[3]) : 2;
+
+        ConcurrentVaccines v = ServerLoadGenerator.system(n, hubs);
+        long t0 = System.nanoTime();
+        PlanView view = v.planView();
+        System.out.printf("view frozen in %.1f ms%n", (System.nanoTime() - t0) / 1e6);
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            double live = run(threads, seconds, rg -> v.getAppointment(SsnIndexBenchmark.ssn(rg.nextInt(n))) == null ? 0 : 1);
+            double frozen = run(threads, seconds, rg -> view.appointment(SsnIndexBenchmark.ssn(rg.nextInt(n))) == null ? 0 : 1);
+            System.out.printf("%2d threads, person lookups: facade %.2f M/s, view %.2f M/s%n", threads, live, frozen);
+            live = run(threads, seconds, rg -> v.allocatedToHub("Hub " + rg.nextInt(hubs), rg.nextInt(7)).size());
+            frozen = run(threads, seconds, rg -> view.allocated("Hub " + rg.nextInt(hubs), rg.nextInt(7)).size());
+            System.out.printf("%2d threads, hub lists:      facade %.2f M/s, view %.2f M/s%n", threads, live, frozen);
+        }
+    }
+
+    private static double run(int threads, double seconds, Query query) throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean();
+        LongAdder queries = new LongAdder();
+        LongAdder sink = new LongAdder();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            workers.add(new Thread(() -> {
+                Random rg = new Random(seed);
+                long count = 0;
+                long found = 0;
+                while (!stop.get()) {
+                    found += query.run(rg);
+                    count++;
+                }
+                queries.add(count);
+                sink.add(found);
+            }));
+        }
+        long t0 = System.nanoTime();
+        workers.forEach(Thread::start);
+        Thread.sleep((long) (seconds * 1000));
+        stop.set(true);
+        for (Thread w : workers)
+            w.join();
+        return queries.sum() / ((System.nanoTime() - t0) / 1e3);
+    }
+}
@@ -0,0 +1,81 @@
+package it.polito.oop.vaccination;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Measures registration throughput from 1 to 64 threads, comparing the
+ * grouped registrations of {@link ConcurrentVaccines#addPerson} with a
+ * single {@link Vaccines} behind one global lock.
+ *
+ * Every SSN is registered by two different threads (by the same one when
+ * there is only one), so half the calls are duplicates; the benchmark
+ * checks that exactly one of them gets {@code true}. The global lock adds
+ * the persons one at a time, so it does not scale with the threads; the
+ * registrations of a group run in parallel, only the SSNs of the same index
+ * stripe waiting for each other, so their throughput is expected to grow
+ * with the threads up to the number of cores.
+ *
+ * Usage: {@code RegistrationBenchmark [persons] [max threads]}.
+ */
+public class RegistrationBenchmark {
+
+    private interface Registry {
+        boolean add(String first, String last, String ssn, int year);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+        String[] ssns = new String[n];
+        for (int i = 0; i < n; i++)
+            ssns[i] = SsnIndexBenchmark.ssn(i);
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            Vaccines locked = new Vaccines();
+            double global = run(ssns, threads, (first, last, ssn, year) -> {
+                synchronized (locked) {
+                    return locked.addPerson(first, last, ssn, year);
+                }
+            }, locked::countPeople);
+            ConcurrentVaccines concurrent = new ConcurrentVaccines();
+            double grouped = run(ssns, threads, concurrent::addPerson, concurrent::countPeople);
+            System.out.printf("%2d threads: global lock %.2f M calls/s, grouped %.2f M calls/s%n",
+                    threads, global, grouped);
+        }
+    }
+
+    private static double run(String[] ssns, int threads, Registry registry, IntSupplier count)
+            throws InterruptedException {
+        int n = ssns.length;
+        AtomicLong added = new AtomicLong();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            int second = (t + 1) % threads;
+            workers.add(new Thread(() -> {
+                long mine = 0;
+                for (int i = 0; i < n; i++) {
+                    int owner = i % threads;
+                    if (owner == first || owner == second)
+                        mine += registry.add("Mario", "Rossi", ssns[i], 1922 + i % 100) ? 1 : 0;
+                    if (threads == 1 && registry.add("Mario", "Rossi", ssns[i], 1922 + i % 100))
+                        mine++;
+                }
+                added.addAndGet(mine);
+            }));
+        }
+        long t0 = System.nanoTime();
+        workers.forEach(Thread::start);
+        for (Thread w : workers)
+            w.join();
+        long t1 = System.nanoTime();
+        if (added.get() != n || count.getAsInt() != n)
+            throw new IllegalStateException(added.get() + " registrations succeeded, "
+                    + count.getAsInt() + " persons, expected " + n);
+        return 2.0 * n / ((t1 - t0) / 1e3);
+    }
+}
@@ -0,0 +1,55 @@
+package it.polito.oop.vaccination;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares recomputing the week plan from scratch with the incremental
+ * {@link Vaccines#replanWeek} after changing the staff of a single hub,
+ * checking that both give the same plan.
+ *
+ * Usage: {@code ReplanBenchmark [persons] [hubs] [changes]}, run with a
+ * large enough heap (e.g. {@code -Xmx4g} for 10M persons).
+ */
+public class ReplanBenchmark {
+
+    public static void main(String[] args) throws VaccineException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        int hubs = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+        int changes = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        Vaccines v = new Vaccines();
+        Random rg = new Random(1971);
+        for (int i = 0; i < n; i++)
+            v.addPerson("Mario", "Rossi", SsnIndexBenchmark.ssn(i), 1922 + rg.nextInt(100));
+        v.setAgeIntervals(30, 40, 50, 60, 70, 80);
+        for (int h = 0; h < hubs; h++) {
+            v.defineHub("Hub " + h);
+            v.setStaff("Hub " + h, 1 + rg.nextInt(8), 1 + rg.nextInt(8), 1 + rg.nextInt(5));
+        }
+        v.setHours(8, 8, 8, 8, 8, 6, 4);
+        v.weekAllocate();
+
+        List<String> names = new ArrayList<>(v.getHubs());
+        double full = 0;
+        double incremental = 0;
+        for (int c = 0; c < changes; c++) {
+            v.setStaff(names.get(rg.nextInt(hubs)), 1 + rg.nextInt(8), 1 + rg.nextInt(8), 1 + rg.nextInt(5));
+            long t0 = System.nanoTime();
+            List<Map<String, List<String>>> replanned = v.replanWeek();
+            long t1 = System.nanoTime();
+            v.clearAllocation();
+            List<Map<String, List<String>>> expected = v.weekAllocate();
+            long t2 = System.nanoTime();
+            if (!replanned.equals(expected))
+                throw new AssertionError("replanned week differs from the full plan");
+            incremental += (t1 - t0) / 1e6;
+            full += (t2 - t1) / 1e6;
+        }
+        System.out.printf("%d persons, %d hubs, %d staff changes%n", n, hubs, changes);
+        System.out.printf("full plan   %8.1f ms per change%n", full / changes);
+        System.out.printf("replanWeek  %8.1f ms per change%n", incremental / changes);
+    }
+}
@@ -0,0 +1,276 @@
+package it.polito.oop.vaccination;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Closed loop load generator for {@link VaccinesServer}: every simulated
+ * client keeps one HTTP/1.1 connection open and sends its next request as
+ * soon as it gets the previous response, so the number of clients is the
+ * number of requests in flight. Clients are multiplexed on a few selector
+ * threads, so thousands of them need no thousands of threads.
+ * <p>
+ * The request mix is mostly person and appointment lookups, with some
+ * availability and interval queries, live bookings and cancellations.
+ * Requests/s and the latency percentiles are reported after a warm-up of
+ * a fifth of the run.
+ * <p>
+ * Usage:
+ * <ul>
+ * <li>{@code ServerLoadGenerator [persons] [hubs] [clients] [seconds]}: runs server and clients in the same JVM;</li>
+ * <li>{@code ServerLoadGenerator server port [persons] [hubs]}: runs the server only;</li>
+ * <li>{@code ServerLoadGenerator client host:port [persons] [hubs] [clients] [seconds]}: runs the clients only,
+ * against a server started with the same persons and hubs.</li>
+ * </ul>
+ * The server side raises {@code sun.net.httpserver.maxIdleConnections},
+ * otherwise the JDK server would close all but 200 of the connections
+ * after every response. Every client takes a file descriptor on both sides, so 10000 clients in
+ * one JVM need a limit of open files well above 20000; running server and
+ * clients apart halves that.
+ */
+public class ServerLoadGenerator {
+    private static final int THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+    public static void main(String[] args) throws Exception {
+        // the JDK server closes keep-alive connections beyond this many idle ones, 200 by default
+        System.setProperty("sun.net.httpserver.maxIdleConnections", "1000000");
+        if (args.length > 1 && args[0].equals("server")) {
+            ConcurrentVaccines v = system(arg(args, 2, 1_000_000), arg(args, 3, 100));
+            VaccinesServer server = new VaccinesServer(v, new InetSocketAddress(Integer.parseInt(args[1])));
+            server.start();
+            System.out.println("listening at " + server.port());
+        } else if (args.length > 1 && args[0].equals("client")) {
+            String[] hostPort = args[1].split(":");
+            drive(new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1])),
+                    arg(args, 2, 1_000_000), arg(args, 3, 100), arg(args, 4, 10_000), arg(args, 5, 10));
+        } else {
+            int n = arg(args, 0, 1_000_000);
+            int hubs = arg(args, 1, 100);
+            VaccinesServer server = new VaccinesServer(system(n, hubs), new InetSocketAddress("127.0.0.1", 0));
+            server.start();
+            try {
+                drive(new InetSocketAddress("127.0.0.1", server.port()), n, hubs, arg(args, 2, 10_000), arg(args, 3, 10));
+            } finally {
+                server.stop();
+            }
+        }
+    }
+
+    private static int arg(String[] args, int i, int def) {
+        return args.length > i ? Integer.parseInt(args[i]) : def;
+    }
+
+    /**
+     * Builds a system with {@code n} persons and {@code hubs} hubs, with a
+     * week already planned so that some persons have an appointment.
+     */
+    static ConcurrentVaccines system(int n, int hubs) throws VaccineException {
+        ConcurrentVaccines v = new ConcurrentVaccines();
+        Random rg = new Random(1971);
+        for (int i = 0; i < n; i++)
+            v.addPerson("Mario", "Rossi", SsnIndexBenchmark.ssn(i), 1922 + rg.nextInt(100));
+        v.setAgeIntervals(30, 40, 50, 60, 70, 80);
+        for (int h = 0; h < hubs; h++) {
+            v.defineHub("Hub " + h);
+            v.setStaff("Hub " + h, 1 + rg.nextInt(8), 1 + rg.nextInt(8), 1 + rg.nextInt(5));
+        }
+        v.setHours(8, 8, 8, 8, 8, 6, 4);
+        v.weekAllocate();
+        return v;
+    }
+
+    private static void drive(InetSocketAddress address, int n, int hubs, int clients, int seconds)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        long warm = start + seconds * 200_000_000L;
+        long end = start + seconds * 1_000_000_000L;
+        List<Clients> groups = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++)
+            groups.add(new Clients(address, n, hubs, clients / THREADS + (t < clients % THREADS ? 1 : 0), t, warm, end));
+        List<Thread> threads = new ArrayList<>();
+        for (Clients g : groups)
+            threads.add(new Thread(g));
+        threads.forEach(Thread::start);
+        for (Thread t : threads)
+            t.join();
+
+        int count = 0;
+        long errors = 0;
+        for (Clients g : groups) {
+            count += g.count;
+            errors += g.errors;
+        }
+        int[] all = new int[count];
+        int k = 0;
+        for (Clients g : groups) {
+            System.arraycopy(g.latencies, 0, all, k, g.count);
+            k += g.count;
+        }
+        Arrays.sort(all);
+        double measured = (end - warm) / 1e9;
+        System.out.printf("%d clients: %.0f requests/s, p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms, %d errors%n",
+                clients, count / measured, percentile(all, 0.5), percentile(all, 0.99), percentile(all, 0.999),
+                percentile(all, 1), errors);
+    }
+
+    private static double percentile(int[] sorted, double p) {
+        if (sorted.length == 0)
+            return Double.NaN;
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))] / 1e3;
+    }
+
+    /**
+     * The clients of one selector thread.
+     */
+    private static class Clients implements Runnable {
+        private final InetSocketAddress address;
+        private final int n;
+        private final int hubs;
+        private final int clients;
+        private final Random rg;
+        private final long warm;
+        private final long end;
+        int[] latencies = new int[1 << 16];
+        int count;
+        long errors;
+
+        Clients(InetSocketAddress address, int n, int hubs, int clients, int seed, long warm, long end) {
+            this.address = address;
+            this.n = n;
+            this.hubs = hubs;
+            this.clients = clients;
+            this.rg = new Random(seed);
+            this.warm = warm;
+            this.end = end;
+        }
+
+        /**
+         * One connection, with the request being written and the response being read.
+         */
+        private class Client {
+            final SocketChannel channel;
+            final ByteBuffer out = ByteBuffer.allocate(256);
+            ByteBuffer in = ByteBuffer.allocate(4096);
+            long sent;
+
+            Client(SocketChannel channel) {
+                this.channel = channel;
+            }
+        }
+
+        @Override
+        public void run() {
+            try (Selector selector = Selector.open()) {
+                for (int c = 0; c < clients; c++) {
+                    SocketChannel channel = SocketChannel.open();
+                    channel.configureBlocking(false);
+                    channel.connect(address);
+                    channel.register(selector, SelectionKey.OP_CONNECT, new Client(channel));
+                }
+                while (System.nanoTime() < end) {
+                    selector.select(100);
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        Client client = (Client) key.attachment();
+                        try {
+                            if (key.isConnectable()) {
+                                client.channel.finishConnect();
+                                send(key, client);
+                            } else if (key.isWritable()) {
+                                client.channel.write(client.out);
+                                if (!client.out.hasRemaining())
+                                    key.interestOps(SelectionKey.OP_READ);
+                            } else if (key.isReadable()) {
+                                receive(key, client);
+                            }
+                        } catch (IOException e) {
+                            errors++;
+                            key.cancel();
+                            client.channel.close();
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                }
+                for (SelectionKey key : selector.keys())
+                    key.channel().close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private void send(SelectionKey key, Client client) {
+            client.out.clear();
+            client.out.put(request().getBytes(StandardCharsets.US_ASCII));
+            client.out.flip();
+            client.sent = System.nanoTime();
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+
+        private String request() {
+            String ssn = SsnIndexBenchmark.ssn(rg.nextInt(n));
+            int r = rg.nextInt(100);
+            String line;
+            if (r < 60)
+                line = "GET /person?ssn=" + ssn;
+            else if (r < 75)
+                line = "GET /appointment?ssn=" + ssn;
+            else if (r < 85)
+                line = "GET /available?hub=Hub%20" + rg.nextInt(hubs) + "&day=" + rg.nextInt(7);
+            else if (r < 90)
+                line = "GET /intervals";
+            else if (r < 97)
+                line = "POST /book?ssn=" + ssn + "&hub=Hub%20" + rg.nextInt(hubs) + "&day=" + rg.nextInt(7);
+            else
+                line = "DELETE /book?ssn=" + ssn;
+            return line + " HTTP/1.1\r\nHost: localhost\r\nContent-Length: 0\r\n\r\n";
+        }
+
+        private void receive(SelectionKey key, Client client) throws IOException {
+            if (client.channel.read(client.in) < 0)
+                throw new IOException("connection closed");
+            int length = responseLength(client.in);
+            if (length < 0 || client.in.position() < length) {
+                if (!client.in.hasRemaining())
+                    client.in = ByteBuffer.allocate(client.in.capacity() * 2).put((ByteBuffer) client.in.flip());
+                return;
+            }
+            long now = System.nanoTime();
+            int status = Integer.parseInt(new String(client.in.array(), 9, 3, StandardCharsets.US_ASCII));
+            if (status >= 500 || status == 400)
+                errors++;
+            if (now > warm) {
+                if (count == latencies.length)
+                    latencies = Arrays.copyOf(latencies, count * 2);
+                latencies[count++] = (int) Math.min(Integer.MAX_VALUE, (now - client.sent) / 1000);
+            }
+            client.in.clear();
+            send(key, client);
+        }
+
+        /**
+         * Length of the response in the buffer, {@code -1} if its headers are not complete yet.
+         */
+        private static int responseLength(ByteBuffer in) {
+            byte[] b = in.array();
+            for (int i = 3; i < in.position(); i++) {
+                if (b[i] == '\n' && b[i - 1] == '\r' && b[i - 2] == '\n' && b[i - 3] == '\r') {
+                    String headers = new String(b, 0, i, StandardCharsets.US_ASCII).toLowerCase();
+                    int at = headers.indexOf("content-length:");
+                    if (at < 0)
+                        return i + 1;
+                    int eol = headers.indexOf('\r', at);
+                    return i + 1 + Integer.parseInt(headers.substring(at + 15, eol).trim());
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package it.polito.oop.vaccination;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Compares restarting a system from its CSV file, reloading and planning
+ * the week again, with restoring it from a snapshot, and checks that both
+ * give the same plan.
+ *
+ * Usage: {@code SnapshotBenchmark [persons] [hubs]}, run with a large
+ * enough heap (e.g. {@code -Xmx8g} for 10M persons).
+ */
+public class SnapshotBenchmark {
+
+    public static void main(String[] args) throws IOException, VaccineException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        int hubs = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+
+        Path csv = Files.createTempFile("people", ".csv");
+        Path snapshot = Files.createTempFile("people", ".snapshot");
+        try {
+            Random rg = new Random(1971);
+            try (BufferedWriter out = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+                out.write(Vaccines.HEADER);
+                out.newLine();
+                for (int i = 0; i < n; i++) {
+                    out.write(SsnIndexBenchmark.ssn(i) + ",Rossi,Mario," + (1922 + rg.nextInt(100)));
+                    out.newLine();
+                }
+            }
+
+            for (int round = 0; round < 3; round++) {
+                long t0 = System.nanoTime();
+                Vaccines v = new Vaccines();
+                v.loadPeople(csv);
+                setUp(v, hubs);
+                v.weekAllocate();
+                long t1 = System.nanoTime();
+                v.saveSnapshot(snapshot);
+                long t2 = System.nanoTime();
+                Vaccines restored = Vaccines.restoreSnapshot(snapshot);
+                long t3 = System.nanoTime();
+                for (String hub : v.getHubs())
+                    for (int d = 0; d < 7; d++)
+                        if (!v.allocatedToHub(hub, d).equals(restored.allocatedToHub(hub, d)))
+                            throw new IllegalStateException("restored plan differs at " + hub + " day " + d);
+                System.out.printf("round %d: CSV load and plan %.0f ms, save %.0f ms (%.0f MB), restore %.0f ms%n", round,
+                        (t1 - t0) / 1e6, (t2 - t1) / 1e6, Files.size(snapshot) / 1e6, (t3 - t2) / 1e6);
+            }
+        } finally {
+            Files.delete(csv);
+            Files.delete(snapshot);
+        }
+    }
+
+    private static void setUp(Vaccines v, int hubs) throws VaccineException {
+        Random rg = new Random(1971);
+        v.setAgeIntervals(30, 40, 50, 60, 70, 80);
+        for (int h = 0; h < hubs; h++) {
+            v.defineHub("Hub " + h);
+            v.setStaff("Hub " + h, 1 + rg.nextInt(8), 1 + rg.nextInt(8), 1 + rg.nextInt(5));
+        }
+        v.setHours(8, 8, 8, 8, 8, 6, 4);
+    }
+}
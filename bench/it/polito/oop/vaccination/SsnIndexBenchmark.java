@@ -0,0 +1,96 @@
+package it.polito.oop.vaccination;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Measures heap footprint and lookup throughput of the packed SSN index
+ * against the former {@code TreeMap<String, Person>}.
+ *
+ * Usage: {@code SsnIndexBenchmark [persons] [lookups]}, run with a large
+ * enough heap (e.g. {@code -Xmx8g} for 10M persons).
+ */
+public class SsnIndexBenchmark {
+    private static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+    private static final String[] FIRSTS = {"Ali", "Anna", "Enrica", "Giorgio", "Luca", "Lucia", "Mario", "Miriam", "Paola", "Xavier"};
+    private static final String[] LASTS = {"Abaco", "Draghi", "Letto", "Melone", "Mattei", "Russo", "Neri", "Rossi", "Verdi", "Xavier"};
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000;
+
+        long before = usedHeap();
+        Population population = new HeapPopulation();
+        fill(n, (first, last, ssn, year) -> population.add(first, last, ssn, year));
+        long columnar = usedHeap() - before;
+        System.out.printf("Population: %d persons, %.1f bytes/person%n", population.size(), (double) columnar / n);
+        long found = lookups(n, lookups, ssn -> population.id(ssn) >= 0 ? 1 : 0, "Population.id");
+
+        Map<String, Person> tree = new TreeMap<>();
+        before = usedHeap();
+        fill(n, (first, last, ssn, year) -> tree.put(ssn, new Person(first, last, ssn, year)));
+        long treeBytes = usedHeap() - before;
+        System.out.printf("TreeMap:    %d persons, %.1f bytes/person (population still live)%n", tree.size(), (double) treeBytes / n);
+        found += lookups(n, lookups, ssn -> tree.containsKey(ssn) ? 1 : 0, "TreeMap.get  ");
+        System.out.println("check " + found);
+    }
+
+    private interface Sink {
+        void add(String first, String last, String ssn, int year);
+    }
+
+    private interface Lookup {
+        int find(String ssn);
+    }
+
+    private static void fill(int n, Sink sink) {
+        Random rg = new Random(1971);
+        for (int i = 0; i < n; i++)
+            sink.add(FIRSTS[rg.nextInt(FIRSTS.length)], LASTS[rg.nextInt(LASTS.length)], ssn(i), 1922 + rg.nextInt(100));
+    }
+
+    /**
+     * A unique, codice fiscale shaped SSN for every index.
+     */
+    static String ssn(int i) {
+        char[] c = new char[16];
+        long v = i * 2654435761L & 0xFFFFFFFFL;
+        for (int k = 0; k < 6; k++, v /= 26)
+            c[k] = ALPHABET.charAt((int) (v % 26));
+        c[6] = (char) ('0' + i % 10);
+        c[7] = (char) ('0' + i / 10 % 10);
+        c[8] = ALPHABET.charAt(i / 100 % 26);
+        c[9] = (char) ('0' + i / 2600 % 10);
+        c[10] = (char) ('0' + i / 26000 % 10);
+        c[11] = ALPHABET.charAt(i / 260000 % 26);
+        c[12] = (char) ('0' + i / 6760000 % 10);
+        c[13] = (char) ('0' + i / 67600000 % 10);
+        c[14] = (char) ('0' + i / 676000000 % 10);
+        c[15] = ALPHABET.charAt(i % 26);
+        return new String(c);
+    }
+
+    private static long lookups(int n, int lookups, Lookup lookup, String name) {
+        Random rg = new Random(42);
+        String[] queries = new String[1 << 16];
+        for (int i = 0; i < queries.length; i++)
+            queries[i] = ssn(rg.nextInt(n));
+        long found = 0;
+        for (int round = 0; round < 3; round++) {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < lookups; i++)
+                found += lookup.find(queries[i & (queries.length - 1)]);
+            long t1 = System.nanoTime();
+            System.out.printf("  %s round %d: %.2f M lookups/s%n", name, round, lookups / ((t1 - t0) / 1e3));
+        }
+        return found;
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,78 @@
+package it.polito.oop.vaccination;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Measures how the parallel week plan scales with the number of threads,
+ * checking that every plan is the same as the one made by allocating hub
+ * by hub and day by day.
+ *
+ * Usage: {@code WeekAllocateBenchmark [persons] [hubs] [max threads]}, run with a
+ * large enough heap (e.g. {@code -Xmx4g} for 10M persons).
+ */
+public class WeekAllocateBenchmark {
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws VaccineException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        int hubs = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        Vaccines v = new Vaccines();
+        Random rg = new Random(1971);
+        for (int i = 0; i < n; i++)
+            v.addPerson("Mario", "Rossi", SsnIndexBenchmark.ssn(i), 1922 + rg.nextInt(100));
+        v.setAgeIntervals(30, 40, 50, 60, 70, 80);
+        for (int h = 0; h < hubs; h++) {
+            v.defineHub("Hub " + h);
+            v.setStaff("Hub " + h, 1 + rg.nextInt(8), 1 + rg.nextInt(8), 1 + rg.nextInt(5));
+        }
+        v.setHours(8, 8, 8, 8, 8, 6, 4);
+
+        List<Map<String, List<String>>> expected = byDay(v);
+        v.clearAllocation();
+        System.out.printf("%d persons, %d hubs, %d allocated%n", n, hubs,
+                expected.stream().flatMap(m -> m.values().stream()).mapToInt(List::size).sum());
+        System.out.printf("by day      %8.1f ms%n", time(v, 0, expected));
+        for (int t = 1; t <= threads; t++)
+            System.out.printf("%2d threads  %8.1f ms%n", t, time(v, t, expected));
+    }
+
+    /**
+     * The week plan made with {@link Vaccines#allocate}.
+     */
+    static List<Map<String, List<String>>> byDay(Vaccines v) {
+        for (String hub : v.getHubs()) {
+            for (int d = 0; d < 7; d++)
+                v.allocate(hub, d);
+        }
+        List<Map<String, List<String>>> plan = new ArrayList<>();
+        for (int d = 0; d < 7; d++) {
+            Map<String, List<String>> hubs = new TreeMap<>();
+            for (String hub : v.getHubs())
+                hubs.put(hub, v.allocatedToHub(hub, d));
+            plan.add(hubs);
+        }
+        return plan;
+    }
+
+    /**
+     * Best time of a few week plans, with {@code threads} zero for the plan made day by day.
+     */
+    private static double time(Vaccines v, int threads, List<Map<String, List<String>>> expected) {
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long t0 = System.nanoTime();
+            List<Map<String, List<String>>> plan = threads == 0 ? byDay(v) : v.weekAllocate(threads);
+            best = Math.min(best, (System.nanoTime() - t0) / 1e6);
+            v.clearAllocation();
+            if (!plan.equals(expected))
+                throw new AssertionError("plan with " + threads + " threads differs from the sequential one");
+        }
+        return best;
+    }
+}
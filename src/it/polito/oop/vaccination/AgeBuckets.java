@@ -0,0 +1,188 @@
+package it.polito.oop.vaccination;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Membership index of the age intervals.
+ *
+ * Every interval has a bucket, addressed by the interval id, with the ids
+ * of the persons whose age falls in it, readable in SSN order (see {@link IdList}).
+ * <p>
+ * Every bucket also has an allocation cursor: all the persons before the
+ * cursor are allocated, so looking for the next persons to allocate starts
+ * from there instead of from the beginning of the bucket. The cursor goes
+ * back to the beginning when the bucket is re-sorted or on {@link #rewind}.
+ * <p>
+ * The number of allocated persons of every interval is counted as they
+ * are added and allocated, so the statistics need not look at them.
+ */
+class AgeBuckets {
+    private final Population persons;
+    private IdList[] buckets = new IdList[0];
+    private int[] cursors = new int[0];
+    private int[] allocatedCounts = new int[0];
+
+    AgeBuckets(Population persons) {
+        this.persons = persons;
+    }
+
+    /**
+     * Replaces every bucket with empty ones.
+     *
+     * @param intervals number of intervals
+     */
+    void reset(int intervals) {
+        buckets = new IdList[intervals];
+        cursors = new int[intervals];
+        allocatedCounts = new int[intervals];
+        for (int i = 0; i < intervals; i++)
+            buckets[i] = new IdList(persons);
+    }
+
+    /**
+     * Adds a person to the bucket of an interval.
+     *
+     * @param interval the interval id of the person, {@code -1} if none
+     */
+    void add(int interval, int id) {
+        if (interval >= 0) {
+            buckets[interval].add(id);
+            if (persons.allocated(id))
+                allocatedCounts[interval]++;
+        }
+    }
+
+    /**
+     * Number of persons in an interval.
+     */
+    int size(int interval) {
+        return buckets[interval].size();
+    }
+
+    /**
+     * Number of allocated persons in an interval.
+     */
+    int allocated(int interval) {
+        return allocatedCounts[interval];
+    }
+
+    /**
+     * Number of persons in an interval that are not allocated yet.
+     */
+    int available(int interval) {
+        return size(interval) - allocatedCounts[interval];
+    }
+
+    /**
+     * Retrieves the ids of the persons in an interval, sorted by SSN.
+     * Only the first {@link #size} elements are meaningful and the array must not be modified.
+     */
+    int[] ids(int interval) {
+        IdList b = buckets[interval];
+        synchronized (b) {
+            if (!b.isSorted())
+                cursors[interval] = 0;
+            return b.ids();
+        }
+    }
+
+    /**
+     * Allocates to a hub on a day the first {@code n} persons of an interval,
+     * in SSN order, that are not allocated yet.
+     *
+     * @param allocated notified with the id of every allocated person, in order
+     * @return the number of allocated persons, less than {@code n} if the interval runs out
+     */
+    int allocate(int interval, int n, int hub, int day, IntConsumer allocated) {
+        int[] ids = ids(interval);
+        int size = buckets[interval].size();
+        int count = 0;
+        int k = cursors[interval];
+        for (; k < size && count < n; k++) {
+            int id = ids[k];
+            if (!persons.allocated(id)) {
+                persons.allocate(id, hub, day);
+                allocated.accept(id);
+                count++;
+            }
+        }
+        cursors[interval] = k;
+        allocatedCounts[interval] += count;
+        return count;
+    }
+
+    /**
+     * Allocates the next persons of an interval, in SSN order, to a sequence
+     * of hubs and days: from {@code from} on, {@code counts[p]} persons go to
+     * {@code hubs[p]} on {@code days[p]}.
+     * <p>
+     * The population allocated count is left to the caller, so that
+     * different intervals can be allocated concurrently.
+     *
+     * @param counts number of persons for every hub and day, within {@link #available}
+     * @param marks receives the cursor before every allocation from {@code from} on, and after the last one
+     * @return the ids of the allocated persons, in allocation order
+     */
+    int[] allocate(int interval, int[] counts, int[] hubs, int[] days, int from, int[] marks) {
+        int total = 0;
+        for (int p = from; p < counts.length; p++)
+            total += counts[p];
+        int[] allocated = new int[total];
+        int[] ids = ids(interval);
+        int k = cursors[interval];
+        int n = 0;
+        for (int p = from; p < counts.length; p++) {
+            marks[p] = k;
+            for (int end = n + counts[p]; n < end; k++) {
+                int id = ids[k];
+                if (!persons.allocated(id)) {
+                    persons.assign(id, hubs[p], days[p]);
+                    allocated[n++] = id;
+                }
+            }
+        }
+        marks[counts.length] = k;
+        cursors[interval] = k;
+        allocatedCounts[interval] += total;
+        return allocated;
+    }
+
+    /**
+     * Takes back the allocation of some persons of an interval, which must
+     * be the last ones allocated, moving the cursor back to where it was
+     * before their allocation.
+     * The population allocated count is left to the caller.
+     */
+    void release(int interval, int[] ids, int from, int to, int cursor) {
+        for (int k = from; k < to; k++)
+            persons.unassign(ids[k]);
+        allocatedCounts[interval] -= to - from;
+        cursors[interval] = cursor;
+    }
+
+    /**
+     * Counts a person of an interval allocated on its own, out of SSN order.
+     */
+    void booked(int interval) {
+        allocatedCounts[interval]++;
+    }
+
+    /**
+     * Takes back the allocation of a person of an interval. The person may
+     * be before the cursor, so the cursor goes back to the beginning.
+     */
+    void cancelled(int interval) {
+        allocatedCounts[interval]--;
+        cursors[interval] = 0;
+    }
+
+    /**
+     * Moves every allocation cursor back to the beginning and zeroes the
+     * allocated counts, to be called when allocations are cleared.
+     */
+    void rewind() {
+        Arrays.fill(cursors, 0);
+        Arrays.fill(allocatedCounts, 0);
+    }
+}
@@ -0,0 +1,68 @@
+package it.polito.oop.vaccination;
+
+import java.util.List;
+
+/**
+ * Dense lookup table from age to age interval id.
+ *
+ * The table spans from the lowest to the highest finite interval boundary:
+ * all the ages below (or above) that range fall in the same intervals, so
+ * they are classified once when the table is built.
+ * As with {@link Person#getAgegroup}, if intervals overlap the last one wins.
+ */
+class AgeTable {
+    private static final int MAX_SPAN = 1 << 16;
+
+    private final List<Interval> intervals;
+    private final int[] table;
+    private final int low;
+    private final int below;
+    private final int above;
+
+    AgeTable(List<Interval> intervals) {
+        this.intervals = intervals;
+        int lo = Integer.MAX_VALUE;
+        int hi = Integer.MIN_VALUE;
+        for (Interval i : intervals) {
+            lo = Math.min(lo, i.start);
+            hi = Math.max(hi, i.start);
+            if (i.end != Integer.MAX_VALUE) {
+                lo = Math.min(lo, i.end);
+                hi = Math.max(hi, i.end);
+            }
+        }
+        if (intervals.isEmpty()) {
+            lo = 0;
+            hi = -1;
+        }
+        low = lo;
+        table = new int[(int) Math.min(MAX_SPAN, (long) hi - lo + 1)];
+        for (int k = 0; k < table.length; k++)
+            table[k] = scan(lo + k);
+        below = scan(lo - 1);
+        above = table.length == (long) hi - lo + 1 ? scan(hi + 1) : -2;
+    }
+
+    /**
+     * Retrieves the interval of an age.
+     *
+     * @return the interval id, or {@code -1} if the age is in no interval
+     */
+    int interval(int age) {
+        if (age < low)
+            return below;
+        long k = (long) age - low;
+        if (k < table.length)
+            return table[(int) k];
+        return above != -2 ? above : scan(age);
+    }
+
+    private int scan(int age) {
+        int id = -1;
+        for (Interval i : intervals) {
+            if (i.isIn(age))
+                id = i.id;
+        }
+        return id;
+    }
+}
@@ -0,0 +1,67 @@
+package it.polito.oop.vaccination;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Persons allocated to every hub on every day of the week.
+ *
+ * Allocations are recorded as they are made, so the persons of a hub on a
+ * day are read without looking at the rest of the population.
+ * A person is in at most one list, as allocated persons are never allocated again
+ * until {@link #clear}.
+ */
+class AllocationIndex {
+    static final int DAYS = 7;
+
+    private final Population persons;
+    private final List<IdList[]> hubs = new ArrayList<>();
+
+    AllocationIndex(Population persons) {
+        this.persons = persons;
+    }
+
+    /**
+     * Adds the lists of a new hub, whose id is the number of hubs added before.
+     */
+    void addHub() {
+        IdList[] days = new IdList[DAYS];
+        for (int d = 0; d < DAYS; d++)
+            days[d] = new IdList(persons);
+        hubs.add(days);
+    }
+
+    void add(int hub, int day, int id) {
+        hubs.get(hub)[day].add(id);
+    }
+
+    void remove(int hub, int day, int id) {
+        hubs.get(hub)[day].remove(id);
+    }
+
+    int size(int hub, int day) {
+        return hubs.get(hub)[day].size();
+    }
+
+    /**
+     * Retrieves the ids of the persons allocated to a hub on a day, sorted by SSN.
+     * Only the first {@link #size} elements are meaningful and the array must not be modified.
+     */
+    int[] ids(int hub, int day) {
+        return hubs.get(hub)[day].ids();
+    }
+
+    /**
+     * Empties the list of a hub on a day.
+     */
+    void clear(int hub, int day) {
+        hubs.get(hub)[day].clear();
+    }
+
+    void clear() {
+        for (IdList[] days : hubs) {
+            for (IdList l : days)
+                l.clear();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package it.polito.oop.vaccination;
+
+/**
+ * Slot reserved for a live booking, not yet confirmed.
+ *
+ * See {@link Vaccines#book}: the slot is taken from the calendar first,
+ * the person is marked as allocated when the booking is confirmed.
+ */
+class Booking {
+    final int id;
+    final int hub;
+    final int day;
+    final int slot;
+    /** Calendar generation the slot was reserved in, see {@link SlotCalendar#generation}. */
+    final int generation;
+
+    Booking(int id, int hub, int day, int slot, int generation) {
+        this.id = id;
+        this.hub = hub;
+        this.day = day;
+        this.slot = slot;
+        this.generation = generation;
+    }
+}
@@ -0,0 +1,563 @@
+package it.polito.oop.vaccination;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Thread-safe view of a {@link Vaccines} system.
+ *
+ * Every operation of {@link Vaccines} is available with the same meaning;
+ * operations that change the system (adding persons, loads, hubs, hours,
+ * allocations and clears) are serialized by the write lock of a
+ * {@link StampedLock}, so a reader never sees an allocation or a plan half
+ * applied.
+ * <p>
+ * Queries that only read counters and per-person data (persons, ages,
+ * appointments and the allocation statistics) are optimistic: they take no
+ * lock at all and are retried under the read lock only if a writer got in
+ * between, so their throughput grows with the number of reader threads.
+ * Queries that read the allocation lists, the hubs or the availability run
+ * under the read lock, since they may sort or cache what the writers left.
+ * <p>
+ * Registrations from many threads run in parallel, under the write lock
+ * taken once for a group of them, see {@link #addPerson}.
+ * Loads take the write lock one batch of lines at a time (see
+ * {@link LoadBatches}), so queries keep being answered during a long load,
+ * seeing the persons of the batches loaded so far. The load listener is
+ * called outside the lock and may query the system.
+ * <p>
+ * A system created by {@link #open} is durable: its changes are journaled
+ * (see {@link Journal}) and on the disk when the methods making them return.
+ */
+public class ConcurrentVaccines implements Closeable {
+    private final Vaccines v;
+    private final StampedLock lock = new StampedLock();
+    private final Registrations registrations;
+    private final Journal journal;
+    private final Path snapshot;
+    private volatile PlanView view;
+
+    public ConcurrentVaccines() {
+        this(false);
+    }
+
+    /**
+     * Creates a thread-safe vaccination system.
+     *
+     * @param offHeap whether to keep the population outside the heap, see {@link Vaccines#Vaccines(boolean)}
+     */
+    public ConcurrentVaccines(boolean offHeap) {
+        this(new Vaccines(offHeap));
+    }
+
+    private ConcurrentVaccines(Vaccines v) {
+        this(v, null, null);
+    }
+
+    private ConcurrentVaccines(Vaccines v, Journal journal, Path snapshot) {
+        this.v = v;
+        this.journal = journal;
+        this.snapshot = snapshot;
+        registrations = new Registrations(v, lock, journal);
+    }
+
+    /**
+     * Creates a thread-safe system from a snapshot file, see {@link Vaccines#restoreSnapshot}.
+     */
+    public static ConcurrentVaccines restoreSnapshot(Path file, boolean offHeap) throws IOException {
+        return new ConcurrentVaccines(Vaccines.restoreSnapshot(file, offHeap));
+    }
+
+    /**
+     * Same as {@link Vaccines#saveSnapshot}, under the write lock. Slots
+     * reserved by live bookings that are not confirmed yet are not saved.
+     */
+    public void saveSnapshot(Path file) throws IOException {
+        write(() -> {
+            v.saveSnapshot(file);
+            return null;
+        });
+    }
+
+    /**
+     * Opens a durable system: the system saved in a snapshot file, if the
+     * file exists, with the changes in a journal file replayed on top of it.
+     * Every change made to the system afterwards is appended to the journal
+     * and forced to the disk before the method making it returns; the
+     * changes made by concurrent threads share the same force.
+     * <p>
+     * {@link #checkpoint} saves the system to the snapshot file and empties
+     * the journal, {@link #close} closes the journal.
+     *
+     * @param snapshot the snapshot file, which need not exist
+     * @param journal the journal file, created if it does not exist
+     * @param offHeap whether to keep the population outside the heap
+     * @return the recovered system
+     * @throws IOException in case of IO error, or if the files are not a valid snapshot and journal
+     */
+    public static ConcurrentVaccines open(Path snapshot, Path journal, boolean offHeap) throws IOException {
+        boolean restore = Files.exists(snapshot);
+        long after = restore ? Snapshot.sequence(snapshot) : 0;
+        Vaccines v = restore ? Vaccines.restoreSnapshot(snapshot, offHeap) : new Vaccines(offHeap);
+        return new ConcurrentVaccines(v, Journal.open(journal, v, after), snapshot);
+    }
+
+    /**
+     * Saves the system to the snapshot file it was opened with, then
+     * empties the journal, under the write lock. The snapshot is written
+     * aside and renamed over the old one, so a crash at any point leaves
+     * a snapshot and a journal that recover the system. Slots reserved by
+     * live bookings in flight are not saved: their bookings are journaled
+     * after the checkpoint, if confirmed.
+     *
+     * @throws IllegalStateException if the system was not created by {@link #open}
+     */
+    public void checkpoint() throws IOException {
+        if (journal == null)
+            throw new IllegalStateException("no journal");
+        Path written = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        write(() -> {
+            Snapshot.save(v, written, journal.lastSequence());
+            Files.move(written, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            journal.reset();
+            return null;
+        });
+    }
+
+    /**
+     * Closes the journal, if any, once the changes made are on the disk.
+     */
+    @Override
+    public void close() throws IOException {
+        if (journal != null)
+            journal.close();
+    }
+
+    /**
+     * Journals a change, to be called holding the write lock right after making it.
+     */
+    private void log(byte op, int[] values, String... texts) {
+        if (journal != null)
+            journal.append(op, values, texts);
+    }
+
+    /**
+     * Waits until the changes journaled so far are on the disk.
+     *
+     * @throws UncheckedIOException if the journal cannot be written
+     */
+    private void durable() {
+        if (journal == null)
+            return;
+        try {
+            journal.sync(journal.lastSequence());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * An operation of the system, possibly throwing a checked exception.
+     */
+    private interface Action<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    private <T, E extends Exception> T write(Action<T, E> action) throws E {
+        long stamp = lock.writeLock();
+        try {
+            return action.run();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private <T, E extends Exception> T read(Action<T, E> action) throws E {
+        long stamp = lock.readLock();
+        try {
+            return action.run();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Runs a query without locking, then again under the read lock if a
+     * writer got in meanwhile. Whatever the query throws or returns while
+     * racing with a writer is discarded.
+     */
+    private <T> T optimistic(Supplier<T> query) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T result = query.get();
+                if (lock.validate(stamp))
+                    return result;
+            } catch (RuntimeException e) {
+                if (lock.validate(stamp))
+                    throw e;
+            }
+        }
+        return read(query::get);
+    }
+
+    // R1
+    /**
+     * Same as {@link Vaccines#addPerson}, safe to call from many threads
+     * at once: registrations of different SSNs run in parallel, under the
+     * write lock taken once for a group of them (see {@link Registrations}),
+     * and of the threads adding the same new SSN exactly one gets {@code true}.
+     */
+    public boolean addPerson(String first, String lastName, String ssn, int year) {
+        boolean added = registrations.add(first, lastName, ssn, year);
+        if (added)
+            durable();
+        return added;
+    }
+
+    public int countPeople() {
+        return optimistic(v::countPeople);
+    }
+
+    public String getPerson(String ssn) {
+        return optimistic(() -> v.getPerson(ssn));
+    }
+
+    public int getAge(String ssn) {
+        return optimistic(() -> v.getAge(ssn));
+    }
+
+    public void setAgeIntervals(int... breaks) {
+        write(() -> {
+            v.setAgeIntervals(breaks);
+            log(Journal.INTERVALS, breaks);
+            return null;
+        });
+        durable();
+    }
+
+    public Collection<String> getAgeIntervals() {
+        return optimistic(v::getAgeIntervals);
+    }
+
+    public Collection<String> getInInterval(String interval) {
+        return read(() -> v.getInInterval(interval));
+    }
+
+    // R2
+    public void defineHub(String name) throws VaccineException {
+        write(() -> {
+            v.defineHub(name);
+            log(Journal.HUB, Journal.NO_VALUES, name);
+            return null;
+        });
+        durable();
+    }
+
+    /**
+     * Tells whether a hub is defined, without copying the hub names.
+     */
+    boolean isHub(String name) {
+        return name != null && read(() -> v.vacinationHups.containsKey(name));
+    }
+
+    /**
+     * Retrieves a copy of the hub names.
+     */
+    public Collection<String> getHubs() {
+        return read(() -> new ArrayList<>(v.getHubs()));
+    }
+
+    public void setStaff(String name, int countDoctors, int nNurses, int other) throws VaccineException {
+        write(() -> {
+            v.setStaff(name, countDoctors, nNurses, other);
+            log(Journal.STAFF, new int[] { countDoctors, nNurses, other }, name);
+            return null;
+        });
+        durable();
+    }
+
+    public int estimateHourlyCapacity(String hub) throws VaccineException {
+        return read(() -> v.estimateHourlyCapacity(hub));
+    }
+
+    // R3
+    public long loadPeople(Reader people) throws IOException, VaccineException {
+        long lines = v.loadPeople(people, new Batches());
+        durable();
+        return lines;
+    }
+
+    public long loadPeople(Path people) throws IOException, VaccineException {
+        long lines = v.loadPeople(people, new Batches());
+        durable();
+        return lines;
+    }
+
+    /**
+     * Holds the write lock for one batch of a load, journaling the persons
+     * added by the batch.
+     */
+    private class Batches implements LoadBatches {
+        private long stamp;
+        private int from;
+
+        @Override
+        public void begin() {
+            stamp = lock.writeLock();
+            from = v.countPeople();
+        }
+
+        @Override
+        public void end() {
+            try {
+                if (journal != null)
+                    for (int id = from; id < v.countPeople(); id++)
+                        journal.add(v.persons.first(id), v.persons.last(id), v.persons.ssn(id), v.persons.year(id));
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    // R4
+    public void setHours(int... hs) throws VaccineException {
+        write(() -> {
+            v.setHours(hs);
+            log(Journal.HOURS, hs);
+            return null;
+        });
+        durable();
+    }
+
+    public List<List<String>> getHours() {
+        return read(v::getHours);
+    }
+
+    public int getDailyAvailable(String hub, int d) {
+        return read(() -> v.getDailyAvailable(hub, d));
+    }
+
+    public Map<String, List<Integer>> getAvailable() {
+        return read(v::getAvailable);
+    }
+
+    public List<String> allocate(String hub, int d) {
+        List<String> allocated = write(() -> {
+            view = null;
+            List<String> a = v.allocate(hub, d);
+            log(Journal.ALLOCATE, new int[] { d }, hub);
+            return a;
+        });
+        durable();
+        return allocated;
+    }
+
+    public void clearAllocation() {
+        write(() -> {
+            view = null;
+            v.clearAllocation();
+            log(Journal.CLEAR, Journal.NO_VALUES);
+            return null;
+        });
+        durable();
+    }
+
+    public List<Map<String, List<String>>> weekAllocate() {
+        return weekAllocate(1);
+    }
+
+    /**
+     * Same as {@link Vaccines#weekAllocate(int)}; the parallelism is not
+     * journaled, since the plan does not depend on it.
+     */
+    public List<Map<String, List<String>>> weekAllocate(int parallelism) {
+        List<Map<String, List<String>>> week = write(() -> {
+            view = null;
+            List<Map<String, List<String>>> w = v.weekAllocate(parallelism);
+            log(Journal.WEEK, Journal.NO_VALUES);
+            return w;
+        });
+        durable();
+        return week;
+    }
+
+    public List<Map<String, List<String>>> replanWeek() {
+        List<Map<String, List<String>>> week = write(() -> {
+            view = null;
+            List<Map<String, List<String>>> w = v.replanWeek();
+            log(Journal.REPLAN, Journal.NO_VALUES);
+            return w;
+        });
+        durable();
+        return week;
+    }
+
+    /**
+     * Same as {@link Vaccines#campaign(int)}, every week being planned
+     * under the write lock.
+     */
+    public Iterator<List<Map<String, List<String>>>> campaign(int parallelism) {
+        Iterator<List<Map<String, List<String>>>> weeks = read(() -> v.campaign(parallelism));
+        return new Iterator<List<Map<String, List<String>>>>() {
+            @Override
+            public boolean hasNext() {
+                return read(weeks::hasNext);
+            }
+
+            @Override
+            public List<Map<String, List<String>>> next() {
+                List<Map<String, List<String>>> week = write(() -> {
+                    view = null;
+                    List<Map<String, List<String>>> w = weeks.next();
+                    log(Journal.CAMPAIGN_WEEK, Journal.NO_VALUES);
+                    return w;
+                });
+                durable();
+                return week;
+            }
+        };
+    }
+
+    public Map<String, Integer> coverageWeeks() {
+        return read(v::coverageWeeks);
+    }
+
+    public List<String> allocatedToHub(String name, int d) {
+        return read(() -> v.allocatedToHub(name, d));
+    }
+
+    public String getAppointment(String ssn) {
+        return optimistic(() -> v.getAppointment(ssn));
+    }
+
+    public List<String> getAppointments(String hub, int d) {
+        return read(() -> v.getAppointments(hub, d));
+    }
+
+    public List<Integer> getSlotBookings(String hub, int d) {
+        return read(() -> v.getSlotBookings(hub, d));
+    }
+
+    /**
+     * Same as {@link Vaccines#book}, safe to call from many threads at once.
+     * The slot is reserved on the atomic counters of the calendar under the
+     * read lock, so concurrent bookings only contend on the slots they
+     * compete for and a full day is refused without the write lock; the
+     * person is then allocated under the write lock.
+     */
+    public String book(String ssn, String hub, int d) {
+        Booking b = reserve(ssn, hub, d);
+        return b == null ? null : confirm(b, ssn, hub);
+    }
+
+    /**
+     * Reserves the slot of a live booking under the read lock, see {@link Vaccines#reserve}.
+     */
+    Booking reserve(String ssn, String hub, int d) {
+        return read(() -> v.reserve(ssn, hub, d));
+    }
+
+    /**
+     * Confirms a reservation under the write lock, journaling the booking,
+     * see {@link Vaccines#confirm}.
+     */
+    String confirm(Booking b, String ssn, String hub) {
+        String time = write(() -> {
+            String t = v.confirm(b);
+            if (t != null)
+                log(Journal.BOOK, new int[] { b.day }, ssn, hub, t);
+            return t;
+        });
+        if (time != null)
+            durable();
+        return time;
+    }
+
+    public boolean cancel(String ssn) {
+        boolean cancelled = write(() -> {
+            boolean c = v.cancel(ssn);
+            if (c)
+                log(Journal.CANCEL, Journal.NO_VALUES, ssn);
+            return c;
+        });
+        if (cancelled)
+            durable();
+        return cancelled;
+    }
+
+    /**
+     * Retrieves a frozen view of the last plan, see {@link Vaccines#freezePlan}.
+     * The view is taken once after every planning (allocations, weeks,
+     * replans and clears) and then shared by all the callers, which query
+     * it without locking; live bookings and cancellations made after
+     * it was taken are not in it.
+     */
+    public PlanView planView() {
+        PlanView p = view;
+        if (p != null)
+            return p;
+        return read(() -> {
+            // writers are excluded, so no planning can clear the view between taking and publishing it
+            PlanView q = view;
+            if (q == null)
+                view = q = v.freezePlan();
+            return q;
+        });
+    }
+
+    /**
+     * Same as {@link Vaccines#exportPlan(WritableByteChannel)}, while changes wait.
+     */
+    public void exportPlan(WritableByteChannel out) throws IOException {
+        read(() -> {
+            v.exportPlan(out);
+            return null;
+        });
+    }
+
+    /**
+     * Same as {@link Vaccines#exportPlan(Path, int)}, while changes wait.
+     */
+    public void exportPlan(Path dir, int parallelism) throws IOException {
+        read(() -> {
+            v.exportPlan(dir, parallelism);
+            return null;
+        });
+    }
+
+    // R5
+    public double propAllocated() {
+        return optimistic(v::propAllocated);
+    }
+
+    public Map<String, Double> propAllocatedAge() {
+        return optimistic(v::propAllocatedAge);
+    }
+
+    public Map<String, Double> distributionAllocated() {
+        return optimistic(v::distributionAllocated);
+    }
+
+    // R6
+    public void setLoadListener(BiConsumer<Integer, String> lsnr) {
+        write(() -> {
+            v.setLoadListener(lsnr);
+            return null;
+        });
+    }
+}
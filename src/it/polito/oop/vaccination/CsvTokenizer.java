@@ -0,0 +1,211 @@
+package it.polito.oop.vaccination;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits a person line {@code SSN,LAST,FIRST,YEAR} in place.
+ *
+ * The tokenizer only records the offsets of the fields and parses the year
+ * directly from the buffer, no intermediate {@code String} is created.
+ * A line is accepted under the same rules as {@code line.split(",")}
+ * yielding exactly four elements and {@link Integer#parseInt} accepting the
+ * last one: trailing empty fields are ignored, the year must not be empty.
+ * <p>
+ * Instances are not thread safe, every parsing thread uses its own.
+ */
+class CsvTokenizer {
+    private final int[] bounds = new int[6];
+    private int year;
+    private byte[] scratch = new byte[64];
+
+    /**
+     * Tokenizes the characters {@code buf[start..end)}.
+     *
+     * @return {@code true} if the line is a well formed person
+     */
+    boolean split(char[] buf, int start, int end) {
+        int field = 0;
+        int from = start;
+        int yearEnd = end;
+        for (int i = start; i < end; i++) {
+            if (buf[i] != ',')
+                continue;
+            if (field < 3) {
+                bounds[2 * field] = from;
+                bounds[2 * field + 1] = i;
+                from = i + 1;
+                field++;
+            } else {
+                yearEnd = i;
+                for (int j = i + 1; j < end; j++)
+                    if (buf[j] != ',')
+                        return false;
+                break;
+            }
+        }
+        if (field < 3 || yearEnd == from)
+            return false;
+        return parseYear(buf, from, yearEnd);
+    }
+
+    /**
+     * Tokenizes the UTF-8 bytes {@code buf[start..end)}.
+     *
+     * Commas can be searched for byte by byte since UTF-8 never
+     * uses ASCII values inside multi-byte sequences.
+     *
+     * @return {@code true} if the line is a well formed person
+     */
+    boolean split(ByteBuffer buf, int start, int end) {
+        int field = 0;
+        int from = start;
+        int yearEnd = end;
+        for (int i = start; i < end; i++) {
+            if (buf.get(i) != ',')
+                continue;
+            if (field < 3) {
+                bounds[2 * field] = from;
+                bounds[2 * field + 1] = i;
+                from = i + 1;
+                field++;
+            } else {
+                yearEnd = i;
+                for (int j = i + 1; j < end; j++)
+                    if (buf.get(j) != ',')
+                        return false;
+                break;
+            }
+        }
+        if (field < 3 || yearEnd == from)
+            return false;
+        return parseYear(buf, from, yearEnd);
+    }
+
+    /*
+     * Accessors for the fields of the last line accepted by split().
+     * The SSN is packed in place, see SsnCodec.
+     */
+
+    long ssnHi(char[] buf) {
+        return SsnCodec.hi(buf, bounds[0], bounds[1]);
+    }
+
+    int ssnLo(char[] buf) {
+        return SsnCodec.lo(buf, bounds[0], bounds[1]);
+    }
+
+    String ssn(char[] buf) {
+        return field(buf, 0);
+    }
+
+    String last(char[] buf) {
+        return field(buf, 1);
+    }
+
+    String first(char[] buf) {
+        return field(buf, 2);
+    }
+
+    long ssnHi(ByteBuffer buf) {
+        return SsnCodec.hi(buf, bounds[0], bounds[1]);
+    }
+
+    int ssnLo(ByteBuffer buf) {
+        return SsnCodec.lo(buf, bounds[0], bounds[1]);
+    }
+
+    String ssn(ByteBuffer buf) {
+        return field(buf, 0);
+    }
+
+    String last(ByteBuffer buf) {
+        return field(buf, 1);
+    }
+
+    String first(ByteBuffer buf) {
+        return field(buf, 2);
+    }
+
+    int year() {
+        return year;
+    }
+
+    private String field(char[] buf, int f) {
+        return new String(buf, bounds[2 * f], bounds[2 * f + 1] - bounds[2 * f]);
+    }
+
+    private String field(ByteBuffer buf, int f) {
+        return decode(buf, bounds[2 * f], bounds[2 * f + 1]);
+    }
+
+    /**
+     * Decodes the UTF-8 bytes {@code buf[start..end)}.
+     */
+    String decode(ByteBuffer buf, int start, int end) {
+        int len = end - start;
+        if (len > scratch.length)
+            scratch = new byte[Math.max(len, scratch.length * 2)];
+        for (int i = 0; i < len; i++)
+            scratch[i] = buf.get(start + i);
+        return new String(scratch, 0, len, StandardCharsets.UTF_8);
+    }
+
+    private boolean parseYear(char[] buf, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (buf[i] == '-' || buf[i] == '+') {
+            negative = buf[i] == '-';
+            if (++i == end)
+                return false;
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = Character.digit(buf[i], 10);
+            if (digit < 0)
+                return false;
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1)
+                return false;
+        }
+        return setYear(negative ? -value : value);
+    }
+
+    private boolean parseYear(ByteBuffer buf, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (buf.get(i) == '-' || buf.get(i) == '+') {
+            negative = buf.get(i) == '-';
+            if (++i == end)
+                return false;
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            byte b = buf.get(i);
+            if (b < 0)
+                return parseYear(decode(buf, start, end)); // non ASCII digits
+            if (b < '0' || b > '9')
+                return false;
+            value = value * 10 + (b - '0');
+            if (value > (long) Integer.MAX_VALUE + 1)
+                return false;
+        }
+        return setYear(negative ? -value : value);
+    }
+
+    private boolean parseYear(String s) {
+        try {
+            year = Integer.parseInt(s);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private boolean setYear(long value) {
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+            return false;
+        year = (int) value;
+        return true;
+    }
+}
@@ -0,0 +1,210 @@
+package it.polito.oop.vaccination;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Population kept on the heap in columnar form.
+ *
+ * Every attribute is kept in its own column, a column being a list of
+ * fixed size primitive pages. Names are dictionary encoded through a
+ * {@link NamePool}. Allocation epochs and slot calendars are 16 bits wide.
+ * <p>
+ * Persons may be stored from many threads at once (see
+ * {@link Population#addShared}): pages are added under the lock of the
+ * population and published by the volatile page count.
+ */
+class HeapPopulation extends Population {
+    private final NamePool names = new NamePool();
+
+    private long[][] ssnHis = new long[0][];
+    private int[][] ssnLos = new int[0][];
+    private int[][] firsts = new int[0][];
+    private int[][] lasts = new int[0][];
+    private int[][] years = new int[0][];
+    private short[][] hubs = new short[0][];
+    private byte[][] days = new byte[0][];
+    private char[][] epochs = new char[0][];
+    private byte[][] slots = new byte[0][];
+    private char[][] calendars = new char[0][];
+    private volatile int pageCount;
+
+    @Override
+    void store(int id, long hi, int lo, String first, String last, int year) {
+        int page = id >>> PAGE_BITS;
+        if (page >= pageCount)
+            grow(page);
+        int slot = id & PAGE_MASK;
+        ssnHis[page][slot] = hi;
+        ssnLos[page][slot] = lo;
+        firsts[page][slot] = names.code(first);
+        lasts[page][slot] = names.code(last);
+        years[page][slot] = year;
+        hubs[page][slot] = -1;
+    }
+
+    @Override
+    void store(int from, LongBuffer his, IntBuffer los, IntBuffer firsts, IntBuffer lasts, IntBuffer years) {
+        int to = from + his.remaining();
+        for (int id = from; id < to; ) {
+            int page = id >>> PAGE_BITS;
+            if (page >= pageCount)
+                grow(page);
+            int slot = id & PAGE_MASK;
+            int n = Math.min(PAGE_SIZE - slot, to - id);
+            his.get(ssnHis[page], slot, n);
+            los.get(ssnLos[page], slot, n);
+            firsts.get(this.firsts[page], slot, n);
+            lasts.get(this.lasts[page], slot, n);
+            years.get(this.years[page], slot, n);
+            Arrays.fill(hubs[page], slot, slot + n, (short) -1);
+            id += n;
+        }
+    }
+
+    /**
+     * Adds pages up to {@code page}, publishing them by the page count.
+     */
+    private synchronized void grow(int page) {
+        if (page < years.length)
+            return;
+        int from = years.length;
+        int pages = page + 1;
+        ssnHis = Arrays.copyOf(ssnHis, pages);
+        ssnLos = Arrays.copyOf(ssnLos, pages);
+        firsts = Arrays.copyOf(firsts, pages);
+        lasts = Arrays.copyOf(lasts, pages);
+        years = Arrays.copyOf(years, pages);
+        hubs = Arrays.copyOf(hubs, pages);
+        days = Arrays.copyOf(days, pages);
+        epochs = Arrays.copyOf(epochs, pages);
+        slots = Arrays.copyOf(slots, pages);
+        calendars = Arrays.copyOf(calendars, pages);
+        for (int p = from; p < pages; p++) {
+            ssnHis[p] = new long[PAGE_SIZE];
+            ssnLos[p] = new int[PAGE_SIZE];
+            firsts[p] = new int[PAGE_SIZE];
+            lasts[p] = new int[PAGE_SIZE];
+            years[p] = new int[PAGE_SIZE];
+            hubs[p] = new short[PAGE_SIZE];
+            days[p] = new byte[PAGE_SIZE];
+            epochs[p] = new char[PAGE_SIZE];
+            slots[p] = new byte[PAGE_SIZE];
+            calendars[p] = new char[PAGE_SIZE];
+        }
+        pageCount = pages;
+    }
+
+    @Override
+    long ssnHi(int id) {
+        return ssnHis[id >>> PAGE_BITS][id & PAGE_MASK];
+    }
+
+    @Override
+    int ssnLo(int id) {
+        return ssnLos[id >>> PAGE_BITS][id & PAGE_MASK];
+    }
+
+    @Override
+    String first(int id) {
+        return names.name(firsts[id >>> PAGE_BITS][id & PAGE_MASK]);
+    }
+
+    @Override
+    String last(int id) {
+        return names.name(lasts[id >>> PAGE_BITS][id & PAGE_MASK]);
+    }
+
+    @Override
+    int nameCount() {
+        return names.size();
+    }
+
+    @Override
+    byte[] nameBytes(int code) {
+        return names.name(code).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    void restoreName(ByteBuffer utf8) {
+        names.restore(StandardCharsets.UTF_8.decode(utf8).toString());
+    }
+
+    @Override
+    int firstCode(int id) {
+        return firsts[id >>> PAGE_BITS][id & PAGE_MASK];
+    }
+
+    @Override
+    int lastCode(int id) {
+        return lasts[id >>> PAGE_BITS][id & PAGE_MASK];
+    }
+
+    @Override
+    int year(int id) {
+        return years[id >>> PAGE_BITS][id & PAGE_MASK];
+    }
+
+    @Override
+    int epoch(int id) {
+        return epochs[id >>> PAGE_BITS][id & PAGE_MASK];
+    }
+
+    @Override
+    int hub(int id) {
+        return hubs[id >>> PAGE_BITS][id & PAGE_MASK];
+    }
+
+    @Override
+    int day(int id) {
+        return days[id >>> PAGE_BITS][id & PAGE_MASK];
+    }
+
+    @Override
+    void assign(int id, int hub, int day) {
+        epochs[id >>> PAGE_BITS][id & PAGE_MASK] = (char) epoch;
+        hubs[id >>> PAGE_BITS][id & PAGE_MASK] = (short) hub;
+        days[id >>> PAGE_BITS][id & PAGE_MASK] = (byte) day;
+    }
+
+    @Override
+    int slot(int id) {
+        return slots[id >>> PAGE_BITS][id & PAGE_MASK];
+    }
+
+    @Override
+    void setSlot(int id, int slot, int calendar) {
+        slots[id >>> PAGE_BITS][id & PAGE_MASK] = (byte) slot;
+        calendars[id >>> PAGE_BITS][id & PAGE_MASK] = (char) calendar;
+    }
+
+    @Override
+    int calendar(int id) {
+        return calendars[id >>> PAGE_BITS][id & PAGE_MASK];
+    }
+
+    @Override
+    void unassign(int id) {
+        epochs[id >>> PAGE_BITS][id & PAGE_MASK] = 0;
+    }
+
+    @Override
+    int maxEpoch() {
+        return Character.MAX_VALUE;
+    }
+
+    @Override
+    void resetEpochs() {
+        for (char[] page : epochs)
+            Arrays.fill(page, (char) 0);
+    }
+
+    @Override
+    void resetCalendars() {
+        for (char[] page : calendars)
+            Arrays.fill(page, (char) 0);
+    }
+}
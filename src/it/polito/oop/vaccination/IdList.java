@@ -0,0 +1,73 @@
+package it.polito.oop.vaccination;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of person ids, readable in SSN order.
+ *
+ * Ids are appended as they come; the list is sorted again, lazily,
+ * only if an id arrived out of SSN order.
+ */
+class IdList {
+    private final Population persons;
+    private int[] ids = new int[16];
+    private int size;
+    private boolean sorted = true;
+
+    IdList(Population persons) {
+        this.persons = persons;
+    }
+
+    void add(int id) {
+        if (size == ids.length)
+            ids = Arrays.copyOf(ids, size * 2);
+        if (size > 0 && sorted && persons.compareSsn(ids[size - 1], id) > 0)
+            sorted = false;
+        ids[size++] = id;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Tells whether {@link #ids} can return without sorting.
+     */
+    boolean isSorted() {
+        return sorted;
+    }
+
+    /**
+     * Retrieves the ids sorted by SSN.
+     * Only the first {@link #size} elements are meaningful and the array must not be modified.
+     * Concurrent readers may call it while no id is added, the first one sorts.
+     */
+    synchronized int[] ids() {
+        if (!sorted) {
+            persons.sortBySsn(ids, 0, size);
+            sorted = true;
+        }
+        return ids;
+    }
+
+    /**
+     * Removes an id, keeping the others in order.
+     *
+     * @return {@code false} if the id is not in the list
+     */
+    boolean remove(int id) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (ids[i] == id) {
+                System.arraycopy(ids, i + 1, ids, i, size - i - 1);
+                size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void clear() {
+        size = 0;
+        sorted = true;
+    }
+}
@@ -3,6 +3,7 @@ package it.polito.oop.vaccination;
 public class Interval implements Comparable<Interval> {
     int start;
     int end;
+    int id;
 
     public Interval(int start, int end) {
         this.start = start;
@@ -0,0 +1,358 @@
+package it.polito.oop.vaccination;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of the changes of a {@link ConcurrentVaccines}
+ * system, replayed on top of its last snapshot when the system is opened
+ * again (see {@link ConcurrentVaccines#open}).
+ *
+ * Every change is journaled as the operation that made it rather than as
+ * its effect: a registration as the person, an allocation or a week as
+ * the call that planned it, a live booking as the person and the slot it
+ * got. The planning is deterministic, so replaying the operations in the
+ * order they were made gives the same persons, plan and appointments.
+ * <p>
+ * Records are appended to a buffer under the write lock of the system, in
+ * the order the changes are made; then the changing threads wait for their
+ * records to be on the disk. The first of them writes and forces all the
+ * records appended so far while the others wait for it, so the changes
+ * made meanwhile, e.g. thousands of registrations, share one {@code force}
+ * (group commit).
+ * <p>
+ * The file is little endian, a header with magic ("VJNL") and version
+ * followed by the records:
+ * <pre>
+ * int     length of what follows, up to the checksum
+ * long    sequence number, from 1 and never reused
+ * byte    operation
+ * byte    strings, then the int length and UTF-8 bytes of every string argument
+ * int     ints, then every int argument
+ * int     CRC-32 of sequence, operation and arguments
+ * </pre>
+ * A record torn by a crash fails its checksum, and is dropped on replay
+ * with whatever follows it; none of them was reported on the disk. A
+ * snapshot holds the sequence of the last record it includes, so records
+ * already in the snapshot are skipped even if the journal was not emptied
+ * after it was written.
+ */
+final class Journal implements Closeable {
+    static final byte ADD = 1;
+    static final byte INTERVALS = 2;
+    static final byte HUB = 3;
+    static final byte STAFF = 4;
+    static final byte HOURS = 5;
+    static final byte ALLOCATE = 6;
+    static final byte WEEK = 7;
+    static final byte REPLAN = 8;
+    static final byte CAMPAIGN_WEEK = 9;
+    static final byte CLEAR = 10;
+    static final byte BOOK = 11;
+    static final byte CANCEL = 12;
+    static final int[] NO_VALUES = new int[0];
+
+    private static final int MAGIC = 0x4C4E4A56;
+    private static final int VERSION = 1;
+    private static final int HEADER = 8;
+    /** Longest record accepted on replay, anything longer is a torn length. */
+    private static final int MAX_RECORD = 1 << 26;
+
+    private final FileChannel channel;
+    private final CRC32 crc = new CRC32();
+    /** Records appended and not written yet. */
+    private ByteBuffer pending = newBuffer(1 << 16);
+    /** Buffer swapped with {@link #pending} while it is written. */
+    private ByteBuffer spare = newBuffer(1 << 16);
+    private long sequence;
+    private long durable;
+    private boolean flushing;
+    private IOException failure;
+
+    private Journal(FileChannel channel, long sequence) {
+        this.channel = channel;
+        this.sequence = sequence;
+        this.durable = sequence;
+    }
+
+    private static ByteBuffer newBuffer(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Opens a journal, creating it if it does not exist, and replays its
+     * records following a snapshot. The torn tail left by a crash, if any,
+     * is cut off.
+     *
+     * @param v the system restored from the snapshot, or a new system
+     * @param after sequence of the last record included in the snapshot, {@code 0} if none
+     * @return the journal, ready to append the records following the replayed ones
+     * @throws IOException in case of IO error, or if the records do not apply to the system
+     */
+    static Journal open(Path file, Vaccines v, long after) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE);
+        try {
+            long last = after;
+            long end = HEADER;
+            ByteBuffer in = fill(channel, (ByteBuffer) newBuffer(1 << 16).flip(), HEADER);
+            if (in.remaining() < HEADER) {
+                ByteBuffer header = newBuffer(HEADER).putInt(MAGIC).putInt(VERSION);
+                header.flip();
+                channel.truncate(0);
+                while (header.hasRemaining())
+                    channel.write(header, header.position());
+            } else {
+                if (in.getInt() != MAGIC)
+                    throw new IOException("not a journal");
+                int version = in.getInt();
+                if (version != VERSION)
+                    throw new IOException("unsupported journal version " + version);
+                CRC32 crc = new CRC32();
+                while (true) {
+                    in = fill(channel, in, 4);
+                    if (in.remaining() < 4)
+                        break;
+                    int length = in.getInt(in.position());
+                    if (length < 14 || length > MAX_RECORD)
+                        break;
+                    in = fill(channel, in, length + 8);
+                    if (in.remaining() < length + 8)
+                        break;
+                    int start = in.position() + 4;
+                    crc.reset();
+                    crc.update(in.array(), in.arrayOffset() + start, length);
+                    if ((int) crc.getValue() != in.getInt(start + length))
+                        break;
+                    in.getInt();
+                    long seq = in.getLong();
+                    if (seq > last) {
+                        replay(v, in);
+                        last = seq;
+                    }
+                    in.position(start + length + 4);
+                    end += length + 8;
+                }
+            }
+            channel.truncate(end);
+            channel.force(true);
+            return new Journal(channel, last);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Makes sure that at least {@code n} bytes are left in a buffer being
+     * read, reading them from the channel; fewer are left at the end of it.
+     *
+     * @return the buffer, or a larger one with the same bytes left
+     */
+    private static ByteBuffer fill(FileChannel channel, ByteBuffer in, int n) throws IOException {
+        if (in.remaining() >= n)
+            return in;
+        ByteBuffer b = in.capacity() < n ? newBuffer(Integer.highestOneBit(n) << 1).put(in) : in.compact();
+        while (b.position() < n && channel.read(b) >= 0)
+            ;
+        b.flip();
+        return b;
+    }
+
+    /**
+     * Applies the operation of a record, the buffer being after its sequence.
+     */
+    private static void replay(Vaccines v, ByteBuffer in) throws IOException {
+        byte op = in.get();
+        String[] s = new String[in.get()];
+        for (int i = 0; i < s.length; i++) {
+            byte[] bytes = new byte[in.getInt()];
+            in.get(bytes);
+            s[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        int[] x = new int[in.getInt()];
+        for (int i = 0; i < x.length; i++)
+            x[i] = in.getInt();
+        try {
+            switch (op) {
+            case ADD:
+                v.addPerson(s[0], s[1], s[2], x[0]);
+                break;
+            case INTERVALS:
+                v.setAgeIntervals(x);
+                break;
+            case HUB:
+                v.defineHub(s[0]);
+                break;
+            case STAFF:
+                v.setStaff(s[0], x[0], x[1], x[2]);
+                break;
+            case HOURS:
+                v.setHours(x);
+                break;
+            case ALLOCATE:
+                v.allocate(s[0], x[0]);
+                break;
+            case WEEK:
+                v.weekAllocate();
+                break;
+            case REPLAN:
+                v.replanWeek();
+                break;
+            case CAMPAIGN_WEEK:
+                v.campaign(1).next();
+                break;
+            case CLEAR:
+                v.clearAllocation();
+                break;
+            case BOOK:
+                v.rebook(s[0], s[1], x[0], s[2]);
+                break;
+            case CANCEL:
+                v.cancel(s[0]);
+                break;
+            default:
+                throw new IOException("unknown journal operation " + op);
+            }
+        } catch (VaccineException | RuntimeException e) {
+            throw new IOException("journal does not apply to the system", e);
+        }
+    }
+
+    /**
+     * Appends the record of a change, to be called holding the write lock
+     * of the system, right after making the change.
+     *
+     * @return the sequence of the record
+     */
+    synchronized long append(byte op, int[] values, String... texts) {
+        byte[][] bytes = new byte[texts.length][];
+        int length = 8 + 1 + 1 + 4 + 4 * values.length;
+        for (int i = 0; i < texts.length; i++) {
+            bytes[i] = texts[i].getBytes(StandardCharsets.UTF_8);
+            length += 4 + bytes[i].length;
+        }
+        if (pending.remaining() < length + 8)
+            pending = newBuffer(Math.max(pending.capacity() * 2, pending.position() + length + 8))
+                    .put((ByteBuffer) pending.flip());
+        int start = pending.position() + 4;
+        pending.putInt(length).putLong(++sequence).put(op).put((byte) texts.length);
+        for (byte[] b : bytes)
+            pending.putInt(b.length).put(b);
+        pending.putInt(values.length);
+        for (int x : values)
+            pending.putInt(x);
+        crc.reset();
+        crc.update(pending.array(), start, length);
+        pending.putInt((int) crc.getValue());
+        return sequence;
+    }
+
+    /**
+     * Appends the registration of a person, see {@link #append}.
+     */
+    long add(String first, String last, String ssn, int year) {
+        return append(ADD, new int[] { year }, first, last, ssn);
+    }
+
+    /**
+     * Retrieves the sequence of the last record appended.
+     */
+    synchronized long lastSequence() {
+        return sequence;
+    }
+
+    /**
+     * Waits until a record and all those before it are on the disk; if no
+     * other thread is writing, writes and forces all the records appended so far.
+     *
+     * @param upTo sequence of the record
+     * @throws IOException if the records could not be written; the journal
+     * is then unusable, and so is every later sync
+     */
+    void sync(long upTo) throws IOException {
+        ByteBuffer batch;
+        long last;
+        synchronized (this) {
+            while (true) {
+                if (failure != null)
+                    throw new IOException("journal failed", failure);
+                if (durable >= upTo)
+                    return;
+                if (!flushing)
+                    break;
+                await();
+            }
+            flushing = true;
+            batch = pending;
+            pending = spare;
+            last = sequence;
+        }
+        IOException error = null;
+        try {
+            batch.flip();
+            while (batch.hasRemaining())
+                channel.write(batch, channel.size());
+            channel.force(false);
+        } catch (IOException e) {
+            error = e;
+        }
+        synchronized (this) {
+            batch.clear();
+            spare = batch;
+            flushing = false;
+            if (error == null)
+                durable = Math.max(durable, last);
+            else
+                failure = error;
+            notifyAll();
+        }
+        if (error != null)
+            throw error;
+    }
+
+    private void await() throws InterruptedIOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for the journal");
+        }
+    }
+
+    /**
+     * Empties the journal once a snapshot on the disk includes all its
+     * records, to be called while no record is appended.
+     */
+    synchronized void reset() throws IOException {
+        while (flushing)
+            await();
+        if (failure != null)
+            throw new IOException("journal failed", failure);
+        pending.clear();
+        channel.truncate(HEADER);
+        channel.force(true);
+        durable = sequence;
+        notifyAll();
+    }
+
+    /**
+     * Writes and forces the records appended so far, then closes the journal.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            sync(lastSequence());
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package it.polito.oop.vaccination;
+
+/**
+ * Brackets the batches of persons added by a load.
+ *
+ * The loads parse the lines of a batch first, then call {@link #begin},
+ * add the persons and call {@link #end}, so that {@link ConcurrentVaccines}
+ * can hold its write lock for one batch at a time instead of for the
+ * whole load. The load listener is notified of the errors of a batch
+ * after its end.
+ */
+interface LoadBatches {
+    LoadBatches NONE = new LoadBatches() {
+        @Override
+        public void begin() {
+        }
+
+        @Override
+        public void end() {
+        }
+    };
+
+    void begin();
+
+    void end();
+}
@@ -0,0 +1,58 @@
+package it.polito.oop.vaccination;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary of first and last names.
+ *
+ * Names repeat a lot across a population, so every distinct name is
+ * stored once and persons refer to it through a small int code.
+ * Names restored from a snapshot are only hashed when the next name is
+ * looked up.
+ * <p>
+ * Names already known are found without locking, new ones are added under
+ * the lock of the pool, so that persons may be added from many threads at
+ * once (see {@link Population#addShared}).
+ */
+class NamePool {
+    private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    /**
+     * Returns the code of a name, adding the name to the pool if needed.
+     */
+    int code(String name) {
+        Integer code = codes.get(name);
+        return code != null ? code : add(name);
+    }
+
+    private synchronized int add(String name) {
+        for (int c = codes.size(); c < names.size(); c++)
+            codes.put(names.get(c), c);
+        Integer code = codes.get(name);
+        if (code == null) {
+            code = names.size();
+            codes.put(name, code);
+            names.add(name);
+        }
+        return code;
+    }
+
+    /**
+     * Appends a name known not to be in the pool, as the next code.
+     */
+    void restore(String name) {
+        names.add(name);
+    }
+
+    String name(int code) {
+        return names.get(code);
+    }
+
+    int size() {
+        return names.size();
+    }
+}
@@ -0,0 +1,379 @@
+package it.polito.oop.vaccination;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Population kept outside the heap.
+ *
+ * Every person is a fixed size record in a direct buffer page,
+ * so the heap (and the garbage collector) only sees a few page objects
+ * whatever the population size:
+ * <pre>
+ *  0  long   packed SSN, first ten characters
+ *  8  int    packed SSN, last six characters
+ * 12  int    birth year
+ * 16  int    first name code
+ * 20  int    last name code
+ * 24  short  hub, -1 if never allocated
+ * 26  byte   day
+ * 27  byte   allocation epoch, unsigned
+ * 28  byte   appointment slot
+ * 29  byte   padding
+ * 30  short  calendar of the appointment slot, unsigned
+ * </pre>
+ * Names are stored once each, as length-prefixed UTF-8 in direct name pages.
+ * A direct table maps every name code to its reference (name page index and
+ * offset), and the codes are found again through an open addressing table
+ * of codes (plus one, 0 marks a free slot) in a direct buffer too: as in
+ * {@link SsnIndex}, keys are read back from the name pages, so no name is
+ * kept as a String. Names restored from a snapshot are only put in the
+ * open addressing table when the next name is looked up.
+ * <p>
+ * Persons may be stored from many threads at once (see
+ * {@link Population#addShared}): pages and names are added under the lock
+ * of the population, and published by the volatile page and name counts,
+ * so that names already known are found without locking.
+ */
+class OffHeapPopulation extends Population {
+    private static final int RECORD = 32;
+    private static final int SSN_HI = 0;
+    private static final int SSN_LO = 8;
+    private static final int YEAR = 12;
+    private static final int FIRST = 16;
+    private static final int LAST = 20;
+    private static final int HUB = 24;
+    private static final int DAY = 26;
+    private static final int EPOCH = 27;
+    private static final int SLOT = 28;
+    private static final int CALENDAR = 30;
+
+    private static final int NAME_PAGE_BITS = 20;
+    private static final int NAME_PAGE_SIZE = 1 << NAME_PAGE_BITS;
+
+    private ByteBuffer[] pages = new ByteBuffer[0];
+    private volatile int pageCount;
+    private volatile ByteBuffer[] namePages = new ByteBuffer[0];
+    private volatile IntBuffer nameRefs = nameTable(1 << 10);
+    private volatile IntBuffer nameSlots = nameTable(1 << 10);
+    private volatile int nameCount;
+    /** Names put in {@code nameSlots} so far, the first ones. */
+    private int indexedNames;
+
+    private static int offset(int id) {
+        return (id & PAGE_MASK) * RECORD;
+    }
+
+    private ByteBuffer page(int id) {
+        return pages[id >>> PAGE_BITS];
+    }
+
+    @Override
+    void store(int id, long hi, int lo, String first, String last, int year) {
+        int page = id >>> PAGE_BITS;
+        if (page >= pageCount)
+            grow(page);
+        ByteBuffer p = pages[page];
+        int o = offset(id);
+        p.putLong(o + SSN_HI, hi);
+        p.putInt(o + SSN_LO, lo);
+        p.putInt(o + YEAR, year);
+        p.putInt(o + FIRST, nameCode(first));
+        p.putInt(o + LAST, nameCode(last));
+        p.putShort(o + HUB, (short) -1);
+        p.put(o + DAY, (byte) 0);
+        p.put(o + EPOCH, (byte) 0);
+    }
+
+    @Override
+    void store(int from, LongBuffer his, IntBuffer los, IntBuffer firsts, IntBuffer lasts, IntBuffer years) {
+        int to = from + his.remaining();
+        for (int id = from; id < to; id++) {
+            int page = id >>> PAGE_BITS;
+            if (page >= pageCount)
+                grow(page);
+            ByteBuffer p = pages[page];
+            int o = offset(id);
+            p.putLong(o + SSN_HI, his.get());
+            p.putInt(o + SSN_LO, los.get());
+            p.putInt(o + YEAR, years.get());
+            p.putInt(o + FIRST, firsts.get());
+            p.putInt(o + LAST, lasts.get());
+            p.putShort(o + HUB, (short) -1);
+        }
+    }
+
+    /**
+     * Adds pages up to {@code page}, publishing them by the page count.
+     */
+    private synchronized void grow(int page) {
+        if (page < pages.length)
+            return;
+        ByteBuffer[] grown = Arrays.copyOf(pages, page + 1);
+        for (int p = pages.length; p <= page; p++)
+            grown[p] = ByteBuffer.allocateDirect(PAGE_SIZE * RECORD).order(ByteOrder.nativeOrder());
+        pages = grown;
+        pageCount = grown.length;
+    }
+
+    /**
+     * Returns the code of a name, appending the name to the last name page if needed.
+     */
+    private int nameCode(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int hash = Arrays.hashCode(bytes);
+        int code = findName(bytes, hash, nameCount);
+        return code >= 0 ? code : addName(bytes, hash);
+    }
+
+    /**
+     * Looks a name up without locking, among the codes below {@code count}
+     * only: the table may already hold codes whose name is not published yet.
+     *
+     * @return the code, or {@code -1} if not found
+     */
+    private int findName(byte[] bytes, int hash, int count) {
+        IntBuffer table = nameSlots;
+        int mask = table.capacity() - 1;
+        for (int i = mix(hash) & mask; ; i = (i + 1) & mask) {
+            int slot = table.get(i);
+            if (slot == 0)
+                return -1;
+            if (slot <= count && nameEquals(slot - 1, bytes))
+                return slot - 1;
+        }
+    }
+
+    private synchronized int addName(byte[] bytes, int hash) {
+        indexNames();
+        int code = findName(bytes, hash, nameCount);
+        if (code < 0) {
+            code = appendName(ByteBuffer.wrap(bytes));
+            indexNames();
+        }
+        return code;
+    }
+
+    /**
+     * Appends a name to the last name page, or to a new one if it does not
+     * fit, without looking it up.
+     *
+     * @return the code of the name
+     */
+    private int appendName(ByteBuffer utf8) {
+        int length = utf8.remaining();
+        ByteBuffer[] names = namePages;
+        ByteBuffer page = names.length == 0 ? null : names[names.length - 1];
+        if (page == null || page.remaining() < 4 + length) {
+            page = ByteBuffer.allocateDirect(Math.max(NAME_PAGE_SIZE, 4 + length)).order(ByteOrder.nativeOrder());
+            names = Arrays.copyOf(names, names.length + 1);
+            names[names.length - 1] = page;
+            namePages = names;
+        }
+        int ref = (names.length - 1) << NAME_PAGE_BITS | page.position();
+        page.putInt(length).put(utf8);
+        int code = nameCount;
+        if (code == nameRefs.capacity()) {
+            IntBuffer refs = nameTable(code * 2);
+            refs.put(nameRefs.duplicate()).clear();
+            nameRefs = refs;
+        }
+        nameRefs.put(code, ref);
+        nameCount = code + 1;
+        return code;
+    }
+
+    /**
+     * Puts the names appended since the last call in the open addressing
+     * table, growing it to stay at most three quarters full.
+     */
+    private void indexNames() {
+        if (indexedNames == nameCount)
+            return;
+        if (4L * nameCount > 3L * nameSlots.capacity()) {
+            int capacity = nameSlots.capacity();
+            while (4L * nameCount > 3L * capacity)
+                capacity *= 2;
+            IntBuffer table = nameTable(capacity);
+            for (int code = 0; code < indexedNames; code++)
+                putName(table, code, nameHash(code));
+            nameSlots = table;
+        }
+        for (; indexedNames < nameCount; indexedNames++)
+            putName(nameSlots, indexedNames, nameHash(indexedNames));
+    }
+
+    private static IntBuffer nameTable(int capacity) {
+        return ByteBuffer.allocateDirect(4 * capacity).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    private static int mix(int hash) {
+        return hash * 0x9E3779B9 ^ hash >>> 16;
+    }
+
+    private static void putName(IntBuffer table, int code, int hash) {
+        int mask = table.capacity() - 1;
+        int i = mix(hash) & mask;
+        while (table.get(i) != 0)
+            i = (i + 1) & mask;
+        table.put(i, code + 1);
+    }
+
+    private ByteBuffer namePage(int code) {
+        return namePages[nameRefs.get(code) >>> NAME_PAGE_BITS];
+    }
+
+    private int nameOffset(int code) {
+        return nameRefs.get(code) & (NAME_PAGE_SIZE - 1);
+    }
+
+    /**
+     * Hash of a stored name, the same as {@code Arrays.hashCode} of its UTF-8 bytes.
+     */
+    private int nameHash(int code) {
+        ByteBuffer page = namePage(code);
+        int o = nameOffset(code);
+        int hash = 1;
+        for (int i = 0, n = page.getInt(o); i < n; i++)
+            hash = 31 * hash + page.get(o + 4 + i);
+        return hash;
+    }
+
+    private boolean nameEquals(int code, byte[] bytes) {
+        ByteBuffer page = namePage(code);
+        int o = nameOffset(code);
+        if (page.getInt(o) != bytes.length)
+            return false;
+        for (int i = 0; i < bytes.length; i++)
+            if (page.get(o + 4 + i) != bytes[i])
+                return false;
+        return true;
+    }
+
+    @Override
+    byte[] nameBytes(int code) {
+        ByteBuffer page = namePage(code);
+        int o = nameOffset(code);
+        byte[] bytes = new byte[page.getInt(o)];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = page.get(o + 4 + i);
+        return bytes;
+    }
+
+    private String name(int code) {
+        return new String(nameBytes(code), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    int nameCount() {
+        return nameCount;
+    }
+
+    @Override
+    void restoreName(ByteBuffer utf8) {
+        appendName(utf8);
+    }
+
+    @Override
+    int firstCode(int id) {
+        return page(id).getInt(offset(id) + FIRST);
+    }
+
+    @Override
+    int lastCode(int id) {
+        return page(id).getInt(offset(id) + LAST);
+    }
+
+    @Override
+    long ssnHi(int id) {
+        return page(id).getLong(offset(id) + SSN_HI);
+    }
+
+    @Override
+    int ssnLo(int id) {
+        return page(id).getInt(offset(id) + SSN_LO);
+    }
+
+    @Override
+    String first(int id) {
+        return name(page(id).getInt(offset(id) + FIRST));
+    }
+
+    @Override
+    String last(int id) {
+        return name(page(id).getInt(offset(id) + LAST));
+    }
+
+    @Override
+    int year(int id) {
+        return page(id).getInt(offset(id) + YEAR);
+    }
+
+    @Override
+    int epoch(int id) {
+        return page(id).get(offset(id) + EPOCH) & 0xFF;
+    }
+
+    @Override
+    int hub(int id) {
+        return page(id).getShort(offset(id) + HUB);
+    }
+
+    @Override
+    int day(int id) {
+        return page(id).get(offset(id) + DAY);
+    }
+
+    @Override
+    void assign(int id, int hub, int day) {
+        ByteBuffer p = page(id);
+        int o = offset(id);
+        p.put(o + EPOCH, (byte) epoch);
+        p.putShort(o + HUB, (short) hub);
+        p.put(o + DAY, (byte) day);
+    }
+
+    @Override
+    int slot(int id) {
+        return page(id).get(offset(id) + SLOT);
+    }
+
+    @Override
+    void setSlot(int id, int slot, int calendar) {
+        ByteBuffer p = page(id);
+        int o = offset(id);
+        p.put(o + SLOT, (byte) slot);
+        p.putShort(o + CALENDAR, (short) calendar);
+    }
+
+    @Override
+    int calendar(int id) {
+        return page(id).getShort(offset(id) + CALENDAR) & 0xFFFF;
+    }
+
+    @Override
+    void unassign(int id) {
+        page(id).put(offset(id) + EPOCH, (byte) 0);
+    }
+
+    @Override
+    int maxEpoch() {
+        return 0xFF;
+    }
+
+    @Override
+    void resetEpochs() {
+        for (int id = 0; id < size(); id++)
+            page(id).put(offset(id) + EPOCH, (byte) 0);
+    }
+
+    @Override
+    void resetCalendars() {
+        for (int id = 0; id < size(); id++)
+            page(id).putShort(offset(id) + CALENDAR, (short) 0);
+    }
+}
@@ -0,0 +1,271 @@
+package it.polito.oop.vaccination;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/**
+ * Reads a people CSV file through memory mapping.
+ *
+ * The body of the file (everything after the header line) is cut into
+ * chunks that always end right after a line terminator, the same ones
+ * {@link Chunk} splits lines at, so that no line spans two chunks; a
+ * {@code "\r\n"} is never split either. No chunk is longer than
+ * {@link #MAX_CHUNK} bytes, a longer line is reported as an
+ * {@code IOException}. Chunks are then parsed independently on the common
+ * fork-join pool, a bounded window of them ahead of the one the caller is
+ * merging, so that the parsed lines held at any time do not depend on the
+ * size of the file.
+ */
+class PeopleFileLoader {
+    private static final int MIN_CHUNK = 1 << 20;
+    private static final int MAX_CHUNK = 1 << 24;
+    private static final int SCAN_BUFFER = 8192;
+
+    private final FileChannel channel;
+    private final long size;
+    private long bodyStart;
+
+    PeopleFileLoader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+    }
+
+    /**
+     * Reads the header line.
+     *
+     * @return the header, or {@code null} if the file is empty
+     */
+    String header() throws IOException {
+        if (size == 0)
+            return null;
+        ByteBuffer buf = ByteBuffer.allocate(SCAN_BUFFER);
+        byte[] line = new byte[SCAN_BUFFER];
+        int len = 0;
+        long pos = 0;
+        while (pos < size) {
+            buf.clear();
+            int n = channel.read(buf, pos);
+            if (n <= 0)
+                break;
+            for (int i = 0; i < n; i++, pos++) {
+                byte b = buf.get(i);
+                if (b == '\n' || b == '\r') {
+                    bodyStart = pos + 1;
+                    if (b == '\r' && bodyStart < size && byteAt(bodyStart) == '\n')
+                        bodyStart++;
+                    return new String(line, 0, len, StandardCharsets.UTF_8);
+                }
+                if (len == line.length)
+                    line = Arrays.copyOf(line, len * 2);
+                line[len++] = b;
+            }
+        }
+        bodyStart = size;
+        return new String(line, 0, len, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses the lines following the header, handing the parsed chunks to
+     * {@code merge} in file order, on the calling thread. At most two
+     * chunks per core are mapped and parsed ahead of the one being merged.
+     *
+     * @param merge receives every parsed chunk
+     */
+    void body(Consumer<Chunk> merge) throws IOException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        long length = Math.max(MIN_CHUNK, Math.min((size - bodyStart) / (cores * 4L), MAX_CHUNK));
+        Deque<ForkJoinTask<Chunk>> parsing = new ArrayDeque<>();
+        long start = bodyStart;
+        while (start < size || !parsing.isEmpty()) {
+            while (start < size && parsing.size() < 2 * cores) {
+                long end = chunkEnd(start, Math.min(size, start + length) - 1);
+                Chunk chunk = new Chunk(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+                parsing.add(ForkJoinPool.commonPool().submit(() -> {
+                    chunk.parse();
+                    return chunk;
+                }));
+                start = end;
+            }
+            merge.accept(parsing.poll().join());
+        }
+    }
+
+    /**
+     * Finds the end of the chunk starting at {@code start}: right after the
+     * first line terminator from {@code from} on, or else right after the
+     * last one before it, so that the chunk fits in {@link #MAX_CHUNK}.
+     *
+     * @throws IOException if a line starting at {@code start} is longer than {@link #MAX_CHUNK}
+     */
+    private long chunkEnd(long start, long from) throws IOException {
+        // one byte short of the limit, room for the '\n' of a "\r\n"
+        long end = nextLine(from, Math.min(size, start + MAX_CHUNK - 1));
+        if (end < 0)
+            end = previousLine(start, from);
+        if (end < 0)
+            throw new IOException("Line at byte " + start + " longer than " + MAX_CHUNK + " bytes");
+        return end;
+    }
+
+    /**
+     * Scans {@code [pos, limit)} for a line terminator.
+     *
+     * @return the position after the terminator; {@link #size} if the scan
+     *         reaches the end of the file; {@code -1} if none is found before {@code limit}
+     */
+    private long nextLine(long pos, long limit) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(SCAN_BUFFER);
+        while (pos < limit) {
+            buf.clear().limit((int) Math.min(SCAN_BUFFER, limit - pos));
+            int n = channel.read(buf, pos);
+            if (n <= 0)
+                break;
+            for (int i = 0; i < n; i++, pos++) {
+                byte b = buf.get(i);
+                if (b == '\n')
+                    return pos + 1;
+                if (b == '\r')
+                    return lineAfter(pos);
+            }
+        }
+        return limit == size ? size : -1;
+    }
+
+    /**
+     * Scans {@code [start, pos)} backwards for a line terminator.
+     *
+     * @return the position after the terminator, or {@code -1} if there is none
+     */
+    private long previousLine(long start, long pos) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(SCAN_BUFFER);
+        while (pos > start) {
+            int n = (int) Math.min(SCAN_BUFFER, pos - start);
+            buf.clear().limit(n);
+            if (channel.read(buf, pos - n) < n)
+                throw new IOException("File truncated while loading");
+            for (int i = n - 1; i >= 0; i--) {
+                byte b = buf.get(i);
+                if (b == '\n')
+                    return pos - n + i + 1;
+                if (b == '\r')
+                    return lineAfter(pos - n + i);
+            }
+            pos -= n;
+        }
+        return -1;
+    }
+
+    /**
+     * Position of the line after a {@code '\r'}, skipping the {@code '\n'} that may follow it.
+     */
+    private long lineAfter(long cr) throws IOException {
+        return cr + 1 < size && byteAt(cr + 1) == '\n' ? cr + 2 : cr + 1;
+    }
+
+    private byte byteAt(long pos) throws IOException {
+        ByteBuffer one = ByteBuffer.allocate(1);
+        channel.read(one, pos);
+        return one.get(0);
+    }
+
+    /**
+     * A line-aligned region of the file.
+     *
+     * Lines are terminated by {@code '\n'}, {@code '\r'} or {@code "\r\n"},
+     * as in {@link java.io.BufferedReader#readLine()}.
+     * For every line the chunk keeps its bounds and the parsed fields;
+     * the SSN is kept packed, as a string only if it cannot be packed.
+     */
+    static class Chunk {
+        private final MappedByteBuffer data;
+        private int lines;
+        private int[] bounds = new int[256];
+        private long[] ssnHis = new long[128];
+        private int[] ssnLos = new int[128];
+        private String[] rawSsns = new String[128];
+        private String[] firsts = new String[128];
+        private String[] lasts = new String[128];
+        private int[] years = new int[128];
+
+        Chunk(MappedByteBuffer data) {
+            this.data = data;
+        }
+
+        int lines() {
+            return lines;
+        }
+
+        boolean valid(int i) {
+            return firsts[i] != null;
+        }
+
+        /**
+         * Adds the person of a valid line.
+         *
+         * @return the id of the person, or {@code -1} if the SSN is duplicate
+         */
+        int addTo(Population population, int i) {
+            return population.add(firsts[i], lasts[i], ssnHis[i], ssnLos[i], rawSsns[i], years[i]);
+        }
+
+        String line(int i) {
+            return new CsvTokenizer().decode(data, bounds[2 * i], bounds[2 * i + 1]);
+        }
+
+        private void parse() {
+            CsvTokenizer tk = new CsvTokenizer();
+            int limit = data.limit();
+            int start = 0;
+            int i = 0;
+            while (i < limit) {
+                byte b = data.get(i);
+                if (b != '\n' && b != '\r') {
+                    i++;
+                    continue;
+                }
+                add(tk, start, i);
+                i++;
+                if (b == '\r' && i < limit && data.get(i) == '\n')
+                    i++;
+                start = i;
+            }
+            if (start < limit)
+                add(tk, start, limit);
+        }
+
+        private void add(CsvTokenizer tk, int start, int end) {
+            if (lines == years.length) {
+                bounds = Arrays.copyOf(bounds, lines * 4);
+                ssnHis = Arrays.copyOf(ssnHis, lines * 2);
+                ssnLos = Arrays.copyOf(ssnLos, lines * 2);
+                rawSsns = Arrays.copyOf(rawSsns, lines * 2);
+                firsts = Arrays.copyOf(firsts, lines * 2);
+                lasts = Arrays.copyOf(lasts, lines * 2);
+                years = Arrays.copyOf(years, lines * 2);
+            }
+            bounds[2 * lines] = start;
+            bounds[2 * lines + 1] = end;
+            if (tk.split(data, start, end)) {
+                long hi = tk.ssnHi(data);
+                ssnHis[lines] = hi;
+                if (hi == SsnCodec.UNPACKED)
+                    rawSsns[lines] = tk.ssn(data);
+                else
+                    ssnLos[lines] = tk.ssnLo(data);
+                firsts[lines] = tk.first(data);
+                lasts[lines] = tk.last(data);
+                years[lines] = tk.year();
+            }
+            lines++;
+        }
+    }
+}
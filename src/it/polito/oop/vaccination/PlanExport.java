@@ -0,0 +1,132 @@
+package it.polito.oop.vaccination;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streams the allocations of a plan as CSV records to a channel.
+ *
+ * Every record is a line {@code HUB,DAY,SSN}, the day being the day of
+ * week index (0 = Monday), after a header line with the same names; the
+ * records of every hub are written day by day, the SSNs in sorted order
+ * as {@link Vaccines#allocatedToHub} lists them. Hub names and SSNs that
+ * contain commas, quotes or line breaks are quoted.
+ * <p>
+ * The records are encoded straight from the allocation lists into a
+ * direct buffer, written to the channel whenever it fills up: packed SSNs
+ * (see {@link SsnCodec}) are decoded to bytes without making strings, and
+ * the name of a hub is encoded once for all its records. No list of the
+ * plan is made, so the memory used does not grow with the plan. The buffer
+ * is given by the caller, so that the exports of a system reuse theirs.
+ */
+final class PlanExport {
+    static final String HEADER = "HUB,DAY,SSN";
+    private static final int BUFFER = 1 << 16;
+
+    private final Population persons;
+    private final AllocationIndex plan;
+    private final WritableByteChannel out;
+    private final ByteBuffer buf;
+
+    /**
+     * @param buf empty buffer to encode the records in, made by {@link #buffer}
+     * and used by one export at a time
+     */
+    PlanExport(Population persons, AllocationIndex plan, WritableByteChannel out, ByteBuffer buf) {
+        this.persons = persons;
+        this.plan = plan;
+        this.out = out;
+        this.buf = buf;
+    }
+
+    static ByteBuffer buffer() {
+        return ByteBuffer.allocateDirect(BUFFER);
+    }
+
+    void header() throws IOException {
+        put((HEADER + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes the records of a hub.
+     */
+    void hub(VacinationHup h) throws IOException {
+        byte[] name = field(h.name);
+        for (int d = 0; d < AllocationIndex.DAYS; d++) {
+            int n = plan.size(h.id, d);
+            int[] ids = plan.ids(h.id, d);
+            for (int k = 0; k < n; k++) {
+                int id = ids[k];
+                put(name);
+                room(3);
+                buf.put((byte) ',').put((byte) ('0' + d)).put((byte) ',');
+                long hi = persons.ssnHi(id);
+                if (hi == SsnCodec.UNPACKED) {
+                    put(field(persons.ssn(id)));
+                } else {
+                    room(SsnCodec.MAX_LENGTH);
+                    SsnCodec.decode(hi, persons.ssnLo(id), buf);
+                }
+                room(1);
+                buf.put((byte) '\n');
+            }
+        }
+    }
+
+    /**
+     * Writes the records encoded so far to the channel.
+     */
+    void flush() throws IOException {
+        buf.flip();
+        while (buf.hasRemaining())
+            out.write(buf);
+        buf.clear();
+    }
+
+    private void room(int bytes) throws IOException {
+        if (buf.remaining() < bytes)
+            flush();
+    }
+
+    private void put(byte[] bytes) throws IOException {
+        for (int i = 0; i < bytes.length; ) {
+            if (!buf.hasRemaining())
+                flush();
+            int n = Math.min(bytes.length - i, buf.remaining());
+            buf.put(bytes, i, n);
+            i += n;
+        }
+    }
+
+    /**
+     * Encodes a CSV field, quoted if needed.
+     */
+    private static byte[] field(String s) {
+        boolean quote = false;
+        for (int i = 0; i < s.length() && !quote; i++) {
+            char c = s.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        return (quote ? '"' + s.replace("\"", "\"\"") + '"' : s).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Name of the file of a hub: the hub name, with the characters other
+     * than ASCII letters and digits, spaces, dashes, underscores and dots
+     * (except a leading one) replaced by underscores, so that the name is
+     * valid on any file system; then the hub id, to tell apart the names
+     * that become the same.
+     */
+    static String fileName(VacinationHup h) {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < h.name.length(); i++) {
+            char c = h.name.charAt(i);
+            boolean safe = c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+                    || c == ' ' || c == '-' || c == '_' || c == '.' && i > 0;
+            name.append(safe ? c : '_');
+        }
+        return name.append('-').append(h.id).append(".csv").toString();
+    }
+}
@@ -0,0 +1,160 @@
+package it.polito.oop.vaccination;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only snapshot of the allocations, frozen when it is taken
+ * (see {@link Vaccines#freezePlan}).
+ *
+ * A view answers "where is this person allocated" and "who is allocated
+ * to this hub on this day" without looking at the system again: the
+ * snapshot keeps its own SSN index, with the hub, day and slot of every
+ * allocated person, and the sorted SSNs of every hub and day, both as
+ * strings and already serialized as UTF-8 lines. Since nothing in a view
+ * changes after it is built, any number of threads may query it without
+ * locking, and the queries return the frozen lists and buffers themselves
+ * instead of copies.
+ * <p>
+ * Packed SSNs (see {@link SsnCodec}) are kept in an open addressing table
+ * of parallel arrays; the few that cannot be packed in a map.
+ */
+public final class PlanView {
+    private static final int NONE = 0;
+
+    private final Map<String, Integer> hubIndex = new HashMap<>();
+    private final String[] hubNames;
+    private final List<List<String>> lists;
+    private final byte[][] serialized;
+    private final long[] his;
+    private final int[] los;
+    /** Hub, day and slot of every entry, see {@link #pack}; {@link #NONE} if the entry is empty. */
+    private final int[] entries;
+    private final int mask;
+    private final Map<String, Integer> rawEntries = new HashMap<>();
+
+    PlanView(Population persons, AllocationIndex plan, List<VacinationHup> hubs) {
+        int days = AllocationIndex.DAYS;
+        hubNames = new String[hubs.size()];
+        lists = new ArrayList<>(Collections.nCopies(hubs.size() * days, null));
+        serialized = new byte[hubs.size() * days][];
+        int total = 0;
+        for (VacinationHup h : hubs) {
+            hubNames[h.id] = h.name;
+            hubIndex.put(h.name, h.id);
+            for (int d = 0; d < days; d++)
+                total += plan.size(h.id, d);
+        }
+        int capacity = Integer.highestOneBit(Math.max(2, total) * 2 - 1) << 1;
+        his = new long[capacity];
+        los = new int[capacity];
+        entries = new int[capacity];
+        mask = capacity - 1;
+        for (VacinationHup h : hubs) {
+            for (int d = 0; d < days; d++) {
+                int n = plan.size(h.id, d);
+                int[] ids = plan.ids(h.id, d);
+                String[] ssns = new String[n];
+                StringBuilder lines = new StringBuilder();
+                for (int k = 0; k < n; k++) {
+                    int id = ids[k];
+                    ssns[k] = persons.ssn(id);
+                    lines.append(ssns[k]).append('\n');
+                    put(persons.ssnHi(id), persons.ssnLo(id), ssns[k], pack(h.id, d, persons.slot(id)));
+                }
+                lists.set(h.id * days + d, Collections.unmodifiableList(Arrays.asList(ssns)));
+                serialized[h.id * days + d] = lines.toString().getBytes(StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    private static int pack(int hub, int day, int slot) {
+        return (hub + 1) << 16 | day << 8 | slot & 0xFF;
+    }
+
+    private void put(long hi, int lo, String ssn, int entry) {
+        if (hi == SsnCodec.UNPACKED) {
+            rawEntries.put(ssn, entry);
+            return;
+        }
+        int i = SsnCodec.hash(hi, lo) & mask;
+        while (entries[i] != NONE)
+            i = (i + 1) & mask;
+        his[i] = hi;
+        los[i] = lo;
+        entries[i] = entry;
+    }
+
+    private int entry(String ssn) {
+        long hi = SsnCodec.hi(ssn);
+        if (hi == SsnCodec.UNPACKED) {
+            Integer entry = rawEntries.get(ssn);
+            return entry == null ? NONE : entry;
+        }
+        int lo = SsnCodec.lo(ssn);
+        for (int i = SsnCodec.hash(hi, lo) & mask; entries[i] != NONE; i = (i + 1) & mask)
+            if (his[i] == hi && los[i] == lo)
+                return entries[i];
+        return NONE;
+    }
+
+    /**
+     * Retrieves the hub a person is allocated to.
+     *
+     * @return the hub name, or {@code null} if the person is not allocated
+     */
+    public String hub(String ssn) {
+        int entry = entry(ssn);
+        return entry == NONE ? null : hubNames[(entry >>> 16) - 1];
+    }
+
+    /**
+     * Retrieves the day a person is allocated on.
+     *
+     * @return the day of week index (0 = Monday), or {@code -1} if the person is not allocated
+     */
+    public int day(String ssn) {
+        int entry = entry(ssn);
+        return entry == NONE ? -1 : entry >>> 8 & 0xFF;
+    }
+
+    /**
+     * Retrieves the time of the appointment of a person, as {@link Vaccines#getAppointment}.
+     */
+    public String appointment(String ssn) {
+        int entry = entry(ssn);
+        int slot = (byte) entry;
+        return entry == NONE || slot < 0 ? null : SlotCalendar.LABELS[slot];
+    }
+
+    /**
+     * Retrieves the SSNs of the persons allocated to a hub on a day, sorted.
+     *
+     * @return the frozen, unmodifiable list; empty if the hub is unknown
+     */
+    public List<String> allocated(String hub, int d) {
+        Integer h = hubIndex.get(hub);
+        if (h == null || d < 0 || d >= AllocationIndex.DAYS)
+            return Collections.emptyList();
+        return lists.get(h * AllocationIndex.DAYS + d);
+    }
+
+    /**
+     * Retrieves the SSNs of the persons allocated to a hub on a day, sorted,
+     * as UTF-8 lines ending with {@code '\n'}.
+     *
+     * @return a read-only buffer over the frozen bytes; empty if the hub is unknown
+     */
+    public ByteBuffer serialized(String hub, int d) {
+        Integer h = hubIndex.get(hub);
+        if (h == null || d < 0 || d >= AllocationIndex.DAYS)
+            return ByteBuffer.allocate(0);
+        return ByteBuffer.wrap(serialized[h * AllocationIndex.DAYS + d]).asReadOnlyBuffer();
+    }
+}
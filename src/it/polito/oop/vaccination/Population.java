@@ -0,0 +1,466 @@
+package it.polito.oop.vaccination;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Store of the persons registered in the system.
+ *
+ * Persons are addressed by dense int ids, assigned in insertion order.
+ * Subclasses decide where the per-person data lives: {@link HeapPopulation}
+ * keeps one paged array per attribute, {@link OffHeapPopulation} keeps
+ * fixed size records in direct buffers. Both grow by pages, so growing the
+ * population never copies it.
+ * <p>
+ * SSNs are packed by {@link SsnCodec} and looked up through an
+ * {@link SsnIndex}; the few SSNs that cannot be packed are kept as
+ * strings, the packed columns then hold {@link SsnCodec#UNPACKED} and
+ * their position in {@code rawSsns}.
+ * <p>
+ * First and last names are dictionary encoded: every distinct name gets
+ * the next dense code, and persons keep the codes.
+ * <p>
+ * Allocations belong to a plan epoch: every person is tagged with the
+ * epoch of its last allocation and is allocated only if that is the
+ * current epoch. Clearing the allocations starts a new epoch, leaving
+ * the old tags (and the hub and day that come with them) behind.
+ * Appointment slots are tagged the same way with the calendar they were
+ * booked in: emptying the calendar for a new week starts a new calendar,
+ * so the slots of the weeks before are kept but no longer held.
+ * <p>
+ * The population has a single writer, except between {@link #beginShared}
+ * and {@link #endShared}, when many threads may add persons at once with
+ * {@link #addShared} and nothing else is done with the population.
+ */
+abstract class Population {
+    static final int PAGE_BITS = 16;
+    static final int PAGE_SIZE = 1 << PAGE_BITS;
+    static final int PAGE_MASK = PAGE_SIZE - 1;
+    /** Largest calendar the slot tags can hold. */
+    static final int MAX_CALENDAR = 0xFFFF;
+
+    private final SsnIndex index = new SsnIndex(this);
+    private final List<String> rawSsns = new ArrayList<>();
+    private final Map<String, Integer> rawIndex = new HashMap<>();
+
+    private int size;
+    /** Next id handed out by {@link #addShared}. */
+    private final AtomicInteger next = new AtomicInteger();
+    private int[] sorted;
+    int allocatedCount;
+    int epoch = 1;
+    int calendar = 1;
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Retrieves the id of a person.
+     *
+     * @return the id, or {@code -1} if the SSN is unknown
+     */
+    int id(String ssn) {
+        long hi = SsnCodec.hi(ssn);
+        if (hi != SsnCodec.UNPACKED)
+            return index.find(hi, SsnCodec.lo(ssn));
+        Integer id = rawIndex.get(ssn);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Adds a person.
+     *
+     * @return the id of the new person, or {@code -1} if the SSN is duplicate
+     */
+    int add(String first, String last, String ssn, int year) {
+        long hi = SsnCodec.hi(ssn);
+        return add(first, last, hi, hi == SsnCodec.UNPACKED ? 0 : SsnCodec.lo(ssn), ssn, year);
+    }
+
+    /**
+     * Adds a person whose SSN has already been packed.
+     *
+     * @param raw the SSN string, only used if {@code hi} is {@link SsnCodec#UNPACKED}
+     * @return the id of the new person, or {@code -1} if the SSN is duplicate
+     */
+    int add(String first, String last, long hi, int lo, String raw, int year) {
+        if (hi == SsnCodec.UNPACKED) {
+            if (rawIndex.containsKey(raw))
+                return -1;
+            lo = rawSsns.size();
+            rawSsns.add(raw);
+            rawIndex.put(raw, size);
+        } else if (index.find(hi, lo) >= 0) {
+            return -1;
+        }
+        int id = size;
+        store(id, hi, lo, first, last, year);
+        if (hi != SsnCodec.UNPACKED)
+            index.insert(id);
+        size++;
+        sorted = null;
+        return id;
+    }
+
+    /**
+     * Starts adding persons from many threads, with {@link #addShared}.
+     */
+    void beginShared() {
+        next.set(size);
+    }
+
+    /**
+     * Adds a person whose SSN has already been packed, while other threads
+     * do the same: ids come from an atomic counter and a packed SSN is
+     * looked up and inserted holding the lock of its {@link SsnIndex#stripe
+     * index stripe} only, so that persons with different SSNs rarely wait
+     * for each other. The person is stored before it is indexed, since the
+     * index reads the SSNs back from the columns. The new persons become part
+     * of the population with {@link #endShared}.
+     *
+     * @param raw the SSN string, only used if {@code hi} is {@link SsnCodec#UNPACKED}
+     * @return the id of the new person, or {@code -1} if the SSN is duplicate
+     */
+    int addShared(String first, String last, long hi, int lo, String raw, int year) {
+        if (hi == SsnCodec.UNPACKED) {
+            synchronized (rawIndex) {
+                if (rawIndex.containsKey(raw))
+                    return -1;
+                int id = next.getAndIncrement();
+                store(id, hi, rawSsns.size(), first, last, year);
+                rawIndex.put(raw, id);
+                rawSsns.add(raw);
+                return id;
+            }
+        }
+        synchronized (index.stripe(hi, lo)) {
+            if (index.find(hi, lo) >= 0)
+                return -1;
+            int id = next.getAndIncrement();
+            store(id, hi, lo, first, last, year);
+            index.insert(id);
+            return id;
+        }
+    }
+
+    /**
+     * Ends adding persons from many threads, once all of them are done.
+     *
+     * @return the id of the first person added since {@link #beginShared}
+     */
+    int endShared() {
+        int from = size;
+        size = next.get();
+        if (size != from)
+            sorted = null;
+        return from;
+    }
+
+    /**
+     * Retrieves the SSNs that cannot be packed, in the order of their
+     * position in the packed columns.
+     */
+    List<String> rawSsns() {
+        return rawSsns;
+    }
+
+    /**
+     * Appends persons restored from a snapshot, whose SSNs are known to be
+     * unique; the buffers hold one value per person, from their position on.
+     * Packed SSNs are not indexed, the index being restored stripe by stripe, by
+     * {@link #restoreIndex}; the SSNs that cannot be packed must have been
+     * restored first, by {@link #restoreRawSsns}, and the names by {@link #restoreName}.
+     *
+     * @param los the packed SSNs, or the positions in {@link #rawSsns()} where {@code his} is {@link SsnCodec#UNPACKED}
+     * @param firsts the codes of the first names
+     * @param lasts the codes of the last names
+     */
+    void restore(LongBuffer his, IntBuffer los, IntBuffer firsts, IntBuffer lasts, IntBuffer years) {
+        int n = his.remaining();
+        for (int k = 0; k < n; k++)
+            if (his.get(his.position() + k) == SsnCodec.UNPACKED)
+                rawIndex.put(rawSsns.get(los.get(los.position() + k)), size + k);
+        store(size, his, los, firsts, lasts, years);
+        size += n;
+        sorted = null;
+    }
+
+    void restoreRawSsns(List<String> ssns) {
+        rawSsns.addAll(ssns);
+    }
+
+    /**
+     * Retrieves the table of a stripe of the SSN index, see {@link SsnIndex#table}.
+     */
+    int[] indexTable(int stripe) {
+        return index.table(stripe);
+    }
+
+    int indexSize(int stripe) {
+        return index.size(stripe);
+    }
+
+    void restoreIndex(int stripe, int[] table, int count) {
+        index.restore(stripe, table, count);
+    }
+
+    /**
+     * Writes a new person, allocating a new page if {@code id} is the first of it.
+     * The person is not allocated to any hub.
+     */
+    abstract void store(int id, long hi, int lo, String first, String last, int year);
+
+    /**
+     * Writes persons restored from a snapshot, from id {@code from} on,
+     * copying the columns as they are.
+     */
+    abstract void store(int from, LongBuffer his, IntBuffer los, IntBuffer firsts, IntBuffer lasts, IntBuffer years);
+
+    /**
+     * Number of distinct names.
+     */
+    abstract int nameCount();
+
+    /**
+     * Retrieves the UTF-8 bytes of the name with a code.
+     */
+    abstract byte[] nameBytes(int code);
+
+    /**
+     * Appends a name restored from a snapshot, known to be distinct from the
+     * others, as the next code. The name is only looked up again once new
+     * names are added.
+     *
+     * @param utf8 the UTF-8 bytes of the name, from position to limit
+     */
+    abstract void restoreName(ByteBuffer utf8);
+
+    abstract int firstCode(int id);
+
+    abstract int lastCode(int id);
+
+    abstract long ssnHi(int id);
+
+    abstract int ssnLo(int id);
+
+    abstract String first(int id);
+
+    abstract String last(int id);
+
+    abstract int year(int id);
+
+    boolean allocated(int id) {
+        return epoch(id) == epoch;
+    }
+
+    /**
+     * Epoch of the last allocation of a person, {@code 0} if never allocated.
+     */
+    abstract int epoch(int id);
+
+    /**
+     * Hub the person was last allocated to, only meaningful if the person is allocated.
+     */
+    abstract int hub(int id);
+
+    /**
+     * Day the person was last allocated on, only meaningful if the person is allocated.
+     */
+    abstract int day(int id);
+
+    /**
+     * Marks a person as allocated to a hub on a day.
+     */
+    void allocate(int id, int hub, int day) {
+        if (!allocated(id))
+            allocatedCount++;
+        assign(id, hub, day);
+    }
+
+    /**
+     * Tags a person with the current epoch, hub and day,
+     * leaving {@link #allocatedCount} to the caller.
+     * Different persons may be tagged concurrently.
+     */
+    abstract void assign(int id, int hub, int day);
+
+    /**
+     * Tags a person as never allocated,
+     * leaving {@link #allocatedCount} to the caller.
+     */
+    abstract void unassign(int id);
+
+    /**
+     * Appointment slot of the person on the allocated day, {@code -1} if none;
+     * only meaningful if the person is allocated.
+     */
+    abstract int slot(int id);
+
+    /**
+     * Books a person in a slot of the current calendar.
+     */
+    void setSlot(int id, int slot) {
+        setSlot(id, slot, calendar);
+    }
+
+    /**
+     * Sets the appointment slot of a person and the calendar it was booked in,
+     * {@code 0} for none.
+     */
+    abstract void setSlot(int id, int slot, int calendar);
+
+    /**
+     * Calendar the slot of a person was booked in; only meaningful if the person is allocated.
+     */
+    abstract int calendar(int id);
+
+    /**
+     * Tells whether an allocated person holds a slot of the current calendar,
+     * that is a slot booked since the calendar was last emptied.
+     */
+    boolean holdsSlot(int id) {
+        return slot(id) >= 0 && calendar(id) == calendar;
+    }
+
+    /**
+     * Tags the slots of every person as booked in no calendar.
+     */
+    abstract void resetCalendars();
+
+    /**
+     * Starts a new calendar, to be called when the calendar is emptied:
+     * the slots booked so far are no longer held.
+     */
+    void newCalendar() {
+        if (calendar == MAX_CALENDAR) {
+            resetCalendars();
+            calendar = 0;
+        }
+        calendar++;
+    }
+
+    /**
+     * Largest epoch the tags can hold.
+     */
+    abstract int maxEpoch();
+
+    /**
+     * Tags every person as never allocated.
+     */
+    abstract void resetEpochs();
+
+    /**
+     * Clears the allocation status of every person by starting a new epoch.
+     * Only when the epochs run out are the tags actually reset.
+     */
+    void clearAllocation() {
+        if (epoch == maxEpoch()) {
+            resetEpochs();
+            epoch = 0;
+        }
+        epoch++;
+        allocatedCount = 0;
+    }
+
+    int countAllocated() {
+        return allocatedCount;
+    }
+
+    String ssn(int id) {
+        long hi = ssnHi(id);
+        return hi == SsnCodec.UNPACKED ? rawSsns.get(ssnLo(id)) : SsnCodec.decode(hi, ssnLo(id));
+    }
+
+    /**
+     * Compares the SSNs of two persons, consistently with {@link String#compareTo}.
+     */
+    int compareSsn(int a, int b) {
+        long hiA = ssnHi(a);
+        long hiB = ssnHi(b);
+        if (hiA == SsnCodec.UNPACKED || hiB == SsnCodec.UNPACKED)
+            return ssn(a).compareTo(ssn(b));
+        return SsnCodec.compare(hiA, ssnLo(a), hiB, ssnLo(b));
+    }
+
+    /**
+     * Retrieves the ids of all persons, sorted by SSN.
+     * The array is cached until the next person is added and must not be modified.
+     */
+    int[] sorted() {
+        if (sorted == null) {
+            int[] ids = new int[size];
+            for (int i = 0; i < size; i++)
+                ids[i] = i;
+            sortBySsn(ids, 0, size);
+            sorted = ids;
+        }
+        return sorted;
+    }
+
+    /**
+     * Sorts {@code ids[from..to)} by SSN.
+     *
+     * When all the SSNs in the range are packed, the keys are first copied
+     * next to the ids so that the sort does not chase ids into the pages.
+     */
+    void sortBySsn(int[] ids, int from, int to) {
+        int n = to - from;
+        long[] his = new long[n];
+        int[] los = new int[n];
+        for (int i = 0; i < n; i++) {
+            his[i] = ssnHi(ids[from + i]);
+            if (his[i] == SsnCodec.UNPACKED) {
+                sortBySsn(ids, new int[to], from, to);
+                return;
+            }
+            los[i] = ssnLo(ids[from + i]);
+        }
+        int[] sub = Arrays.copyOfRange(ids, from, to);
+        sortKeys(his, los, sub, new long[n], new int[n], new int[n], 0, n);
+        System.arraycopy(sub, 0, ids, from, n);
+    }
+
+    private static void sortKeys(long[] his, int[] los, int[] ids, long[] th, int[] tl, int[] ti, int from, int to) {
+        if (to - from < 2)
+            return;
+        int mid = (from + to) >>> 1;
+        sortKeys(his, los, ids, th, tl, ti, from, mid);
+        sortKeys(his, los, ids, th, tl, ti, mid, to);
+        if (SsnCodec.compare(his[mid - 1], los[mid - 1], his[mid], los[mid]) <= 0)
+            return;
+        System.arraycopy(his, from, th, from, to - from);
+        System.arraycopy(los, from, tl, from, to - from);
+        System.arraycopy(ids, from, ti, from, to - from);
+        for (int i = from, l = from, r = mid; i < to; i++) {
+            int k = r == to || (l < mid && SsnCodec.compare(th[l], tl[l], th[r], tl[r]) <= 0) ? l++ : r++;
+            his[i] = th[k];
+            los[i] = tl[k];
+            ids[i] = ti[k];
+        }
+    }
+
+    private void sortBySsn(int[] ids, int[] tmp, int from, int to) {
+        if (to - from < 2)
+            return;
+        int mid = (from + to) >>> 1;
+        sortBySsn(ids, tmp, from, mid);
+        sortBySsn(ids, tmp, mid, to);
+        if (compareSsn(ids[mid - 1], ids[mid]) <= 0)
+            return;
+        System.arraycopy(ids, from, tmp, from, to - from);
+        for (int i = from, l = from, r = mid; i < to; i++) {
+            if (r == to || (l < mid && compareSsn(tmp[l], tmp[r]) <= 0))
+                ids[i] = tmp[l++];
+            else
+                ids[i] = tmp[r++];
+        }
+    }
+}
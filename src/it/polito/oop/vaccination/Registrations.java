@@ -0,0 +1,156 @@
+package it.polito.oop.vaccination;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Registration path of {@link ConcurrentVaccines}, adding the persons of
+ * concurrent threads in parallel.
+ *
+ * Registering threads form groups: the first thread of a group takes the
+ * write lock of the system on behalf of the whole group, and the threads
+ * coming while the group is open join it without touching the lock. Inside
+ * a group the persons are added with {@link Vaccines#register}, where an
+ * SSN is looked up and inserted holding the lock of its stripe of the SSN
+ * index only and ids come from an atomic counter (see
+ * {@link Population#addShared}), so registrations of different SSNs run in
+ * parallel and their throughput grows with the threads. The last thread to
+ * leave the group closes it: it counts the new persons in the system and
+ * in the age intervals ({@link Vaccines#endRegistrations}), journals them
+ * and releases the write lock.
+ * <p>
+ * Queries and writers are kept out for the whole group, as by any writer,
+ * so they never see a person half added; a group lets in at most
+ * {@link #MAX_GROUP} registrations, so that they get the lock in between.
+ * The stripe lock makes exactly one caller get {@code true} for every new
+ * SSN, and the person is visible to every query once it does.
+ * <p>
+ * The persons of a group are journaled when it closes, in id order, so
+ * that replaying the journal gives them the same ids; the threads of a
+ * journaled group wait for it to close before returning, to wait for their
+ * records on the disk.
+ */
+class Registrations {
+    /** Registrations let into a group before it closes. */
+    static final int MAX_GROUP = 1024;
+    /** Turns a waiting thread yields before parking. */
+    private static final int SPINS = 64;
+    private static final long PARK_NANOS = 20_000;
+
+    /** State with no group: the next registration opens one. */
+    private static final long NONE = 0;
+    /** State while a group is opened, waiting for the write lock. */
+    private static final long OPENING = -1;
+    /** Unit of the registrations joined so far, in the high half of the state. */
+    private static final long JOINED = 1L << 32;
+    /** Unit of the registrations in the group, in the low half of the state. */
+    private static final long MEMBER = 1;
+
+    private final Vaccines v;
+    private final StampedLock lock;
+    private final Journal journal;
+    private final AtomicLong group = new AtomicLong(NONE);
+    /** Write stamp of the open group, set before the group is. */
+    private long stamp;
+    /** Number of the open group, set before the group is. */
+    private long opened;
+    /** Number of the last group closed. */
+    private volatile long closed;
+
+    /**
+     * @param journal the journal of the system, {@code null} if none
+     */
+    Registrations(Vaccines v, StampedLock lock, Journal journal) {
+        this.v = v;
+        this.lock = lock;
+        this.journal = journal;
+    }
+
+    /**
+     * Registers a person, see {@link Vaccines#addPerson}.
+     *
+     * @return {@code false} if the SSN is duplicate
+     */
+    boolean add(String first, String last, String ssn, int year) {
+        long hi = SsnCodec.hi(ssn);
+        int lo = hi == SsnCodec.UNPACKED ? 0 : SsnCodec.lo(ssn);
+        long number = enter();
+        boolean added;
+        try {
+            added = v.register(first, last, hi, lo, ssn, year);
+        } finally {
+            leave();
+        }
+        if (added && journal != null)
+            for (int spins = 0; closed < number; spins++)
+                pause(spins);
+        return added;
+    }
+
+    /**
+     * Joins the open group, or opens a new one if there is none.
+     *
+     * @return the number of the group
+     */
+    private long enter() {
+        for (int spins = 0; ; spins++) {
+            long s = group.get();
+            if (s == NONE) {
+                if (group.compareAndSet(NONE, OPENING)) {
+                    stamp = lock.writeLock();
+                    long number = ++opened;
+                    v.beginRegistrations();
+                    group.set(JOINED + MEMBER);
+                    return number;
+                }
+            } else if (s != OPENING && (int) s > 0 && s >>> 32 < MAX_GROUP) {
+                if (group.compareAndSet(s, s + JOINED + MEMBER))
+                    return opened;
+                spins = 0;
+                continue;
+            }
+            pause(spins);
+        }
+    }
+
+    /**
+     * Leaves the group, closing it if this is the last registration in it.
+     */
+    private void leave() {
+        while (true) {
+            long s = group.get();
+            if ((int) s > 1) {
+                if (group.compareAndSet(s, s - MEMBER))
+                    return;
+            } else if (group.compareAndSet(s, (long) MAX_GROUP << 32 | MEMBER)) {
+                close();
+                return;
+            }
+        }
+    }
+
+    private void close() {
+        long held = stamp;
+        long number = opened;
+        try {
+            int from = v.endRegistrations();
+            if (journal != null) {
+                Population persons = v.persons;
+                for (int id = from; id < persons.size(); id++)
+                    journal.add(persons.first(id), persons.last(id), persons.ssn(id), persons.year(id));
+            }
+        } finally {
+            closed = number;
+            group.set(NONE);
+            lock.unlockWrite(held);
+        }
+    }
+
+    private static void pause(int spins) {
+        if (spins < SPINS)
+            Thread.yield();
+        else
+            LockSupport.parkNanos(PARK_NANOS);
+    }
+}
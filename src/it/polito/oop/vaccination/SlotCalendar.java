@@ -0,0 +1,226 @@
+package it.polito.oop.vaccination;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Appointment calendar of the hubs: how many persons are booked in every
+ * 15 minutes slot of every hub on every day.
+ *
+ * Slot {@code s} of a day starts {@code 15 * s} minutes after 9:00, as the
+ * slots of {@link Vaccines#getHours}. The hourly capacity of a hub is split
+ * among the four slots of every hour, the first ones taking the remainder.
+ * Every hub keeps its counters in one array, one row per day with the
+ * counters of the slots followed by the first slot that may have room.
+ * <p>
+ * The counters are atomic so that live bookings can {@link #reserve} slots
+ * concurrently with each other; planning ({@link #book}), confirmations,
+ * releases and clears are not concurrent with anything else. Reserved
+ * slots are counted as booked, and also as pending until they are
+ * {@link #confirm confirmed} or {@link #unreserve given back}, so that a
+ * snapshot can leave them out. Every clear starts a new
+ * {@link #generation}, telling reservations made before it apart.
+ */
+class SlotCalendar {
+    /** Slots of the longest day, 12 working hours. */
+    static final int MAX_SLOTS = 12 * 4;
+    /** Labels of all the slots, shared by all the appointments. */
+    static final String[] LABELS = new String[MAX_SLOTS];
+
+    static {
+        for (int s = 0; s < MAX_SLOTS; s++)
+            LABELS[s] = String.format("%02d:%02d", 9 + s / 4, s % 4 * 15);
+    }
+
+    private static final int ROW = MAX_SLOTS + 1;
+
+    private final List<AtomicIntegerArray> hubs = new ArrayList<>();
+    private final List<AtomicIntegerArray> pending = new ArrayList<>();
+    /** Generation of the last clear of every day of every hub. */
+    private final List<int[]> cleared = new ArrayList<>();
+    private int generation;
+
+    /**
+     * Adds the calendar of a new hub, whose id is the number of hubs added before.
+     */
+    void addHub() {
+        hubs.add(new AtomicIntegerArray(AllocationIndex.DAYS * ROW));
+        pending.add(new AtomicIntegerArray(AllocationIndex.DAYS * ROW));
+        cleared.add(new int[AllocationIndex.DAYS]);
+    }
+
+    /**
+     * Number of persons that can be booked in a slot.
+     *
+     * @param hourly hourly capacity of the hub
+     */
+    static int capacity(int hourly, int slot) {
+        return hourly / 4 + (slot % 4 < hourly % 4 ? 1 : 0);
+    }
+
+    /**
+     * Books a person in the first slot of a hub on a day that has room.
+     *
+     * @param hourly hourly capacity of the hub
+     * @param slots number of slots of the day
+     * @return the slot, or {@code -1} if the day is full
+     */
+    int book(int hub, int day, int hourly, int slots) {
+        AtomicIntegerArray c = hubs.get(hub);
+        int row = day * ROW;
+        for (int s = c.get(row + MAX_SLOTS); s < Math.min(slots, MAX_SLOTS); s++) {
+            int booked = c.get(row + s);
+            if (booked < capacity(hourly, s)) {
+                c.lazySet(row + s, booked + 1);
+                c.lazySet(row + MAX_SLOTS, s);
+                return s;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Same as {@link #book}, safe to call from many threads at once:
+     * a slot is never booked beyond its capacity. The slot stays pending
+     * until it is confirmed or given back.
+     */
+    int reserve(int hub, int day, int hourly, int slots) {
+        AtomicIntegerArray c = hubs.get(hub);
+        int row = day * ROW;
+        for (int s = c.get(row + MAX_SLOTS); s < Math.min(slots, MAX_SLOTS); s++) {
+            int capacity = capacity(hourly, s);
+            for (int booked = c.get(row + s); booked < capacity; booked = c.get(row + s)) {
+                if (c.compareAndSet(row + s, booked, booked + 1)) {
+                    pending.get(hub).incrementAndGet(row + s);
+                    // every slot before s was full, whichever thread writes last
+                    c.lazySet(row + MAX_SLOTS, s);
+                    return s;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reserves a given slot, as a live booking replayed from the journal
+     * did; the first slot with room is looked for from the beginning of the day.
+     */
+    void restore(int hub, int day, int slot) {
+        AtomicIntegerArray c = hubs.get(hub);
+        int row = day * ROW;
+        c.incrementAndGet(row + slot);
+        pending.get(hub).incrementAndGet(row + slot);
+        c.set(row + MAX_SLOTS, 0);
+    }
+
+    /**
+     * Turns a reserved slot into a booked one.
+     */
+    void confirm(int hub, int day, int slot) {
+        pending.get(hub).decrementAndGet(day * ROW + slot);
+    }
+
+    /**
+     * Gives back a reserved slot that was not confirmed.
+     */
+    void unreserve(int hub, int day, int slot) {
+        pending.get(hub).decrementAndGet(day * ROW + slot);
+        release(hub, day, slot);
+    }
+
+    /**
+     * Retrieves all the counters of a hub, one row per day, for a snapshot.
+     * Reserved slots that are not confirmed yet are left out.
+     */
+    int[] counters(int hub) {
+        AtomicIntegerArray c = hubs.get(hub);
+        AtomicIntegerArray p = pending.get(hub);
+        int[] counters = new int[c.length()];
+        for (int i = 0; i < counters.length; i++)
+            counters[i] = c.get(i);
+        for (int row = 0; row < counters.length; row += ROW) {
+            for (int s = 0; s < MAX_SLOTS; s++) {
+                if (p.get(row + s) > 0) {
+                    counters[row + s] -= p.get(row + s);
+                    counters[row + MAX_SLOTS] = Math.min(counters[row + MAX_SLOTS], s);
+                }
+            }
+        }
+        return counters;
+    }
+
+    /**
+     * Sets all the counters of a hub, as saved by {@link #counters}.
+     */
+    void restore(int hub, int[] counters) {
+        AtomicIntegerArray c = hubs.get(hub);
+        for (int i = 0; i < counters.length; i++)
+            c.set(i, counters[i]);
+    }
+
+    /**
+     * Gives back a booked slot.
+     */
+    void release(int hub, int day, int slot) {
+        AtomicIntegerArray c = hubs.get(hub);
+        int row = day * ROW;
+        c.decrementAndGet(row + slot);
+        if (c.get(row + MAX_SLOTS) > slot)
+            c.set(row + MAX_SLOTS, slot);
+    }
+
+    /**
+     * Number of clears so far.
+     */
+    int generation() {
+        return generation;
+    }
+
+    /**
+     * Tells whether a day of a hub has been emptied since a generation,
+     * dropping the reservations made on it before.
+     */
+    boolean cleared(int hub, int day, int since) {
+        return cleared.get(hub)[day] > since;
+    }
+
+    /**
+     * Retrieves the number of persons booked in every slot of a hub on a day.
+     *
+     * @param slots number of slots of the day
+     */
+    int[] bookings(int hub, int day, int slots) {
+        AtomicIntegerArray c = hubs.get(hub);
+        int row = day * ROW;
+        int[] bookings = new int[Math.max(0, Math.min(slots, MAX_SLOTS))];
+        for (int s = 0; s < bookings.length; s++)
+            bookings[s] = c.get(row + s);
+        return bookings;
+    }
+
+    /**
+     * Empties the calendar of a hub on a day.
+     */
+    void clear(int hub, int day) {
+        AtomicIntegerArray c = hubs.get(hub);
+        AtomicIntegerArray p = pending.get(hub);
+        for (int i = day * ROW; i < (day + 1) * ROW; i++) {
+            c.lazySet(i, 0);
+            p.lazySet(i, 0);
+        }
+        cleared.get(hub)[day] = ++generation;
+    }
+
+    void clear() {
+        generation++;
+        for (int h = 0; h < hubs.size(); h++) {
+            for (int i = 0; i < hubs.get(h).length(); i++) {
+                hubs.get(h).lazySet(i, 0);
+                pending.get(h).lazySet(i, 0);
+            }
+            Arrays.fill(cleared.get(h), generation);
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package it.polito.oop.vaccination;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary snapshot of a {@link Vaccines} system: persons, age intervals,
+ * hubs, hours and allocations.
+ *
+ * The file is little endian and made of sections written one after the
+ * other, strings being an int length followed by UTF-8 bytes:
+ * <pre>
+ * int     magic ("VACC"), int version, long last journal record included (see {@link Journal})
+ * int     intervals, then start and end of every interval
+ * int     days with hours, then the hours of every day
+ * int     hubs, then name, doctors, nurses and other staff of every hub
+ *         and its slot calendar, 7 rows of 48 slot counters and the first slot with room,
+ *         without the slots reserved by live bookings not confirmed yet
+ * int     names, then every distinct first and last name
+ * int     SSNs that cannot be packed, then every one of them
+ * int     persons, then one column per attribute, in person id order:
+ *         long SSN hi, int SSN lo, int first name, int last name, int birth year,
+ *         short hub (-1 if not allocated), byte day, byte slot,
+ *         byte 1 if the slot is held in the calendar, 0 if its week is over
+ * int     SSN index stripes, then the entries, the length and the table of every stripe
+ * </pre>
+ * The names are the name pool of the population, in code order, and the
+ * name columns hold the codes of the population itself.
+ * Restoring maps the file and copies the columns into a new population
+ * with the same ids, the names and name codes as they are and the SSN
+ * index tables as they are, so nothing is parsed or hashed again (the names
+ * are only hashed when a new name is added); the age buckets and the
+ * allocation lists are rebuilt from the restored persons. The calendar is saved as it is, since the
+ * weeks of a campaign clear it and leave the persons of the weeks before
+ * with their slots; which slots are still held in it is saved with the
+ * persons. The result answers
+ * every query as the saved system did, except that a {@link Vaccines#replanWeek}
+ * plans the week from scratch.
+ * <p>
+ * The whole file is mapped at once, which limits snapshots to 2 GB,
+ * about 60 million persons.
+ */
+final class Snapshot {
+    private static final int MAGIC = 0x43434156;
+    private static final int VERSION = 5;
+
+    private Snapshot() {
+    }
+
+    /**
+     * Writes a snapshot and forces it to the disk.
+     *
+     * @param sequence the last journal record whose change the system includes, {@code 0} if none
+     */
+    static void save(Vaccines v, Path file, long sequence) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Out out = new Out(channel);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putLong(sequence);
+            out.putInt(v.intervals.size());
+            for (Interval i : v.intervals) {
+                out.putInt(i.start);
+                out.putInt(i.end);
+            }
+            out.putInt(v.noHours.size());
+            for (int h : v.noHours)
+                out.putInt(h);
+            out.putInt(v.hubById.size());
+            for (VacinationHup h : v.hubById) {
+                out.putString(h.name);
+                out.putInt(h.countDoctors);
+                out.putInt(h.nNurses);
+                out.putInt(h.other);
+                for (int c : v.calendar.counters(h.id))
+                    out.putInt(c);
+            }
+
+            Population persons = v.persons;
+            int n = persons.size();
+            out.putInt(persons.nameCount());
+            for (int c = 0; c < persons.nameCount(); c++)
+                out.putBytes(persons.nameBytes(c));
+            out.putInt(persons.rawSsns().size());
+            for (String ssn : persons.rawSsns())
+                out.putString(ssn);
+
+            out.putInt(n);
+            for (int id = 0; id < n; id++)
+                out.putLong(persons.ssnHi(id));
+            for (int id = 0; id < n; id++)
+                out.putInt(persons.ssnLo(id));
+            for (int id = 0; id < n; id++)
+                out.putInt(persons.firstCode(id));
+            for (int id = 0; id < n; id++)
+                out.putInt(persons.lastCode(id));
+            for (int id = 0; id < n; id++)
+                out.putInt(persons.year(id));
+            for (int id = 0; id < n; id++)
+                out.putShort(persons.allocated(id) ? persons.hub(id) : -1);
+            for (int id = 0; id < n; id++)
+                out.putByte(persons.allocated(id) ? persons.day(id) : 0);
+            for (int id = 0; id < n; id++)
+                out.putByte(persons.allocated(id) ? persons.slot(id) : -1);
+            for (int id = 0; id < n; id++)
+                out.putByte(persons.allocated(id) && persons.holdsSlot(id) ? 1 : 0);
+
+            out.putInt(SsnIndex.STRIPES);
+            for (int s = 0; s < SsnIndex.STRIPES; s++) {
+                int[] table = persons.indexTable(s);
+                out.putInt(persons.indexSize(s));
+                out.putInt(table.length);
+                for (int slot : table)
+                    out.putInt(slot);
+            }
+            out.flush();
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Reads the last journal record included in a snapshot.
+     */
+    static long sequence(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0)
+                ;
+            header.flip();
+            if (header.remaining() < 16 || header.getInt() != MAGIC)
+                throw new IOException("not a snapshot");
+            int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException("unsupported snapshot version " + version);
+            return header.getLong();
+        }
+    }
+
+    static Vaccines restore(Path file, boolean offHeap) throws IOException {
+        MappedByteBuffer map;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("snapshot larger than 2 GB");
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ByteBuffer in = map.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (in.getInt() != MAGIC)
+                throw new IOException("not a snapshot");
+            int version = in.getInt();
+            if (version != VERSION)
+                throw new IOException("unsupported snapshot version " + version);
+            in.getLong();
+            return restore(in, offHeap);
+        } catch (RuntimeException e) {
+            throw new IOException("corrupted snapshot", e);
+        }
+    }
+
+    private static Vaccines restore(ByteBuffer in, boolean offHeap) throws IOException {
+        Vaccines v = new Vaccines(offHeap);
+        for (int i = in.getInt(); i > 0; i--)
+            v.intervals.add(new Interval(in.getInt(), in.getInt()));
+        int days = in.getInt();
+        if (days > 0) {
+            int[] hours = new int[days];
+            for (int d = 0; d < days; d++)
+                hours[d] = in.getInt();
+            try {
+                v.setHours(hours);
+            } catch (VaccineException e) {
+                throw new IOException("corrupted snapshot", e);
+            }
+        }
+        for (int h = in.getInt(); h > 0; h--) {
+            String name = getString(in);
+            try {
+                v.defineHub(name);
+            } catch (VaccineException e) {
+                throw new IOException("corrupted snapshot", e);
+            }
+            VacinationHup hub = v.vacinationHups.get(name);
+            hub.countDoctors = in.getInt();
+            hub.nNurses = in.getInt();
+            hub.other = in.getInt();
+            int[] counters = v.calendar.counters(hub.id);
+            for (int i = 0; i < counters.length; i++)
+                counters[i] = in.getInt();
+            v.calendar.restore(hub.id, counters);
+        }
+
+        Population persons = v.persons;
+        for (int c = in.getInt(); c > 0; c--) {
+            int length = in.getInt();
+            persons.restoreName(section(in, in.position(), length));
+            in.position(in.position() + length);
+        }
+        List<String> raws = new ArrayList<>();
+        for (int r = in.getInt(); r > 0; r--)
+            raws.add(getString(in));
+        persons.restoreRawSsns(raws);
+        int n = in.getInt();
+        int his = in.position();
+        int los = his + 8 * n;
+        int firsts = los + 4 * n;
+        int lasts = firsts + 4 * n;
+        int years = lasts + 4 * n;
+        int hubs = years + 4 * n;
+        int days2 = hubs + 2 * n;
+        int slots = days2 + n;
+        int held = slots + n;
+        persons.restore(section(in, his, 8 * n).asLongBuffer(), section(in, los, 4 * n).asIntBuffer(),
+                section(in, firsts, 4 * n).asIntBuffer(), section(in, lasts, 4 * n).asIntBuffer(),
+                section(in, years, 4 * n).asIntBuffer());
+        in.position(held + n);
+        int stripes = in.getInt();
+        if (stripes != SsnIndex.STRIPES)
+            throw new IOException("unsupported SSN index of " + stripes + " stripes");
+        for (int s = 0; s < stripes; s++) {
+            int count = in.getInt();
+            int[] table = new int[in.getInt()];
+            in.asIntBuffer().get(table);
+            in.position(in.position() + 4 * table.length);
+            persons.restoreIndex(s, table, count);
+        }
+
+        for (int id = 0; id < n; id++) {
+            int hub = in.getShort(hubs + 2 * id);
+            if (hub < 0)
+                continue;
+            int day = in.get(days2 + id);
+            int slot = in.get(slots + id);
+            persons.allocate(id, hub, day);
+            persons.setSlot(id, slot, in.get(held + id) == 1 ? persons.calendar : 0);
+            v.plan.add(hub, day, id);
+        }
+        v.intervalsChanged();
+        return v;
+    }
+
+    /**
+     * Retrieves a little endian view of {@code length} bytes of a buffer, from an offset.
+     */
+    private static ByteBuffer section(ByteBuffer in, int offset, int length) {
+        ByteBuffer section = in.duplicate();
+        section.position(offset);
+        section.limit(offset + length);
+        return section.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Buffered little endian writer of a channel.
+     */
+    private static class Out {
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+        Out(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void room(int bytes) throws IOException {
+            if (buf.remaining() < bytes)
+                flush();
+        }
+
+        void putLong(long x) throws IOException {
+            room(8);
+            buf.putLong(x);
+        }
+
+        void putInt(int x) throws IOException {
+            room(4);
+            buf.putInt(x);
+        }
+
+        void putShort(int x) throws IOException {
+            room(2);
+            buf.putShort((short) x);
+        }
+
+        void putByte(int x) throws IOException {
+            room(1);
+            buf.put((byte) x);
+        }
+
+        void putString(String s) throws IOException {
+            putBytes(s.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            putInt(bytes.length);
+            for (int i = 0; i < bytes.length; i += buf.capacity()) {
+                room(Math.min(bytes.length - i, buf.capacity()));
+                buf.put(bytes, i, Math.min(bytes.length - i, buf.capacity()));
+            }
+        }
+
+        void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining())
+                channel.write(buf);
+            buf.clear();
+        }
+    }
+}
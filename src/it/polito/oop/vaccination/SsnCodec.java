@@ -0,0 +1,186 @@
+package it.polito.oop.vaccination;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Packs an SSN (codice fiscale) in 96 bits.
+ *
+ * A codice fiscale is made of at most 16 characters among {@code 0-9} and
+ * {@code A-Z}. Every character is mapped to a base 37 digit (0 is kept as
+ * padding), the first ten characters go in a {@code long} and the last six
+ * in an unsigned {@code int}. Digits follow the character order, so comparing
+ * the packed values is the same as comparing the strings.
+ * <p>
+ * SSNs using other characters, or longer than 16, cannot be packed:
+ * {@link #hi} returns {@link #UNPACKED} and the caller keeps the string.
+ */
+final class SsnCodec {
+    static final long UNPACKED = -1;
+    static final int MAX_LENGTH = 16;
+
+    private static final int HI_CHARS = 10;
+    private static final int RADIX = 37;
+    /** {@code RADIX} to the power of half the characters packed in the long. */
+    private static final long HALF = 37 * 37 * 37 * 37 * 37;
+
+    private SsnCodec() {
+    }
+
+    private static int digit(int c) {
+        if (c >= '0' && c <= '9')
+            return c - '0' + 1;
+        if (c >= 'A' && c <= 'Z')
+            return c - 'A' + 11;
+        return -1;
+    }
+
+    private static char character(int digit) {
+        return (char) (digit <= 10 ? '0' + digit - 1 : 'A' + digit - 11);
+    }
+
+    /**
+     * Packs the first ten characters of an SSN.
+     *
+     * @return the packed value, or {@link #UNPACKED} if the SSN cannot be packed
+     */
+    static long hi(String ssn) {
+        int len = ssn.length();
+        if (len > MAX_LENGTH)
+            return UNPACKED;
+        long hi = 0;
+        for (int i = 0; i < HI_CHARS; i++) {
+            int d = i < len ? digit(ssn.charAt(i)) : 0;
+            if (d < 0)
+                return UNPACKED;
+            hi = hi * RADIX + d;
+        }
+        for (int i = HI_CHARS; i < len; i++)
+            if (digit(ssn.charAt(i)) < 0)
+                return UNPACKED;
+        return hi;
+    }
+
+    /**
+     * Packs the last six characters of an SSN accepted by {@link #hi(String)}.
+     */
+    static int lo(String ssn) {
+        int lo = 0;
+        for (int i = HI_CHARS; i < MAX_LENGTH; i++)
+            lo = lo * RADIX + (i < ssn.length() ? digit(ssn.charAt(i)) : 0);
+        return lo;
+    }
+
+    /**
+     * Same as {@link #hi(String)} for the characters {@code buf[start..end)}.
+     */
+    static long hi(char[] buf, int start, int end) {
+        int len = end - start;
+        if (len > MAX_LENGTH)
+            return UNPACKED;
+        long hi = 0;
+        for (int i = 0; i < HI_CHARS; i++) {
+            int d = i < len ? digit(buf[start + i]) : 0;
+            if (d < 0)
+                return UNPACKED;
+            hi = hi * RADIX + d;
+        }
+        for (int i = HI_CHARS; i < len; i++)
+            if (digit(buf[start + i]) < 0)
+                return UNPACKED;
+        return hi;
+    }
+
+    static int lo(char[] buf, int start, int end) {
+        int lo = 0;
+        for (int i = HI_CHARS; i < MAX_LENGTH; i++)
+            lo = lo * RADIX + (start + i < end ? digit(buf[start + i]) : 0);
+        return lo;
+    }
+
+    /**
+     * Same as {@link #hi(String)} for the UTF-8 bytes {@code buf[start..end)}.
+     */
+    static long hi(ByteBuffer buf, int start, int end) {
+        int len = end - start;
+        if (len > MAX_LENGTH)
+            return UNPACKED;
+        long hi = 0;
+        for (int i = 0; i < HI_CHARS; i++) {
+            int d = i < len ? digit(buf.get(start + i)) : 0;
+            if (d < 0)
+                return UNPACKED;
+            hi = hi * RADIX + d;
+        }
+        for (int i = HI_CHARS; i < len; i++)
+            if (digit(buf.get(start + i)) < 0)
+                return UNPACKED;
+        return hi;
+    }
+
+    static int lo(ByteBuffer buf, int start, int end) {
+        int lo = 0;
+        for (int i = HI_CHARS; i < MAX_LENGTH; i++)
+            lo = lo * RADIX + (start + i < end ? digit(buf.get(start + i)) : 0);
+        return lo;
+    }
+
+    /**
+     * Rebuilds the SSN string from its packed form.
+     */
+    static String decode(long hi, int lo) {
+        char[] chars = new char[MAX_LENGTH];
+        for (int i = HI_CHARS - 1; i >= 0; i--, hi /= RADIX)
+            chars[i] = (char) (hi % RADIX);
+        long l = lo & 0xFFFFFFFFL;
+        for (int i = MAX_LENGTH - 1; i >= HI_CHARS; i--, l /= RADIX)
+            chars[i] = (char) (l % RADIX);
+        int len = 0;
+        while (len < MAX_LENGTH && chars[len] != 0) {
+            chars[len] = character(chars[len]);
+            len++;
+        }
+        return new String(chars, 0, len);
+    }
+
+    /**
+     * Writes the characters of a packed SSN as ASCII bytes at the position
+     * of a buffer, with two long divisions and the rest on ints, and moves
+     * the position past them.
+     *
+     * @param out buffer with at least {@link #MAX_LENGTH} bytes remaining
+     */
+    static void decode(long hi, int lo, ByteBuffer out) {
+        int at = out.position();
+        int high = (int) (hi / HALF);
+        int low = (int) (hi % HALF);
+        for (int i = HI_CHARS / 2 - 1; i >= 0; i--, high /= RADIX)
+            out.put(at + i, (byte) (high % RADIX));
+        for (int i = HI_CHARS - 1; i >= HI_CHARS / 2; i--, low /= RADIX)
+            out.put(at + i, (byte) (low % RADIX));
+        long l = lo & 0xFFFFFFFFL;
+        out.put(at + MAX_LENGTH - 1, (byte) (l % RADIX));
+        int rest = (int) (l / RADIX);
+        for (int i = MAX_LENGTH - 2; i >= HI_CHARS; i--, rest /= RADIX)
+            out.put(at + i, (byte) (rest % RADIX));
+        int len = 0;
+        for (byte c; len < MAX_LENGTH && (c = out.get(at + len)) != 0; len++)
+            out.put(at + len, (byte) character(c));
+        out.position(at + len);
+    }
+
+    /**
+     * Compares two packed SSNs, consistently with {@link String#compareTo}.
+     */
+    static int compare(long hi1, int lo1, long hi2, int lo2) {
+        int c = Long.compare(hi1, hi2);
+        return c != 0 ? c : Integer.compareUnsigned(lo1, lo2);
+    }
+
+    static int hash(long hi, int lo) {
+        long h = hi * 0x9E3779B97F4A7C15L + lo;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
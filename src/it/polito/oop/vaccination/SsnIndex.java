@@ -0,0 +1,117 @@
+package it.polito.oop.vaccination;
+
+/**
+ * Open addressing hash index from packed SSNs to person ids.
+ *
+ * The table only holds ids (plus one, 0 marks a free slot): keys are read
+ * back from the population columns, so an entry costs 4 bytes of table.
+ * Collisions are resolved by linear probing.
+ * <p>
+ * The index is split in {@link #STRIPES} tables, chosen by the top bits
+ * of the hash, each growing on its own. A thread holding the
+ * {@link #stripe lock of a stripe} may look up and insert the SSNs of that
+ * stripe while other threads do the same on other stripes, so that persons
+ * are added from many threads at once (see {@link Population#addShared});
+ * otherwise the index has a single writer, as the population.
+ */
+class SsnIndex {
+    static final int STRIPE_BITS = 8;
+    static final int STRIPES = 1 << STRIPE_BITS;
+
+    private final Population population;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private static final class Stripe {
+        int[] slots = new int[1 << 4];
+        int count;
+    }
+
+    SsnIndex(Population population) {
+        this.population = population;
+        for (int s = 0; s < STRIPES; s++)
+            stripes[s] = new Stripe();
+    }
+
+    /**
+     * Retrieves the id associated to a packed SSN.
+     *
+     * @return the id, or {@code -1} if not found
+     */
+    int find(long hi, int lo) {
+        int hash = SsnCodec.hash(hi, lo);
+        int[] slots = stripes[hash >>> -STRIPE_BITS].slots;
+        int mask = slots.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int slot = slots[i];
+            if (slot == 0)
+                return -1;
+            int id = slot - 1;
+            if (population.ssnHi(id) == hi && population.ssnLo(id) == lo)
+                return id;
+        }
+    }
+
+    /**
+     * Retrieves the lock of the stripe of a packed SSN, to be held while
+     * looking it up and inserting it when other threads add persons too.
+     */
+    Object stripe(long hi, int lo) {
+        return stripes[SsnCodec.hash(hi, lo) >>> -STRIPE_BITS];
+    }
+
+    /**
+     * Adds a person whose packed SSN is not in the index yet.
+     */
+    void insert(int id) {
+        int hash = SsnCodec.hash(population.ssnHi(id), population.ssnLo(id));
+        Stripe stripe = stripes[hash >>> -STRIPE_BITS];
+        if (4L * (stripe.count + 1) > 3L * stripe.slots.length)
+            resize(stripe);
+        put(stripe.slots, id, hash);
+        stripe.count++;
+    }
+
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes)
+            size += stripe.count;
+        return size;
+    }
+
+    int size(int stripe) {
+        return stripes[stripe].count;
+    }
+
+    /**
+     * Retrieves the table of a stripe, to be saved with the population
+     * and {@link #restore restored} with it. The table must not be modified.
+     */
+    int[] table(int stripe) {
+        return stripes[stripe].slots;
+    }
+
+    /**
+     * Replaces a stripe with a saved table, the population being restored
+     * with the same ids.
+     */
+    void restore(int stripe, int[] table, int count) {
+        stripes[stripe].slots = table;
+        stripes[stripe].count = count;
+    }
+
+    private static void put(int[] table, int id, int hash) {
+        int mask = table.length - 1;
+        int i = hash & mask;
+        while (table[i] != 0)
+            i = (i + 1) & mask;
+        table[i] = id + 1;
+    }
+
+    private void resize(Stripe stripe) {
+        int[] table = new int[stripe.slots.length * 2];
+        for (int slot : stripe.slots)
+            if (slot != 0)
+                put(table, slot - 1, SsnCodec.hash(population.ssnHi(slot - 1), population.ssnLo(slot - 1)));
+        stripe.slots = table;
+    }
+}
@@ -3,23 +3,70 @@ package it.polito.oop.vaccination;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiConsumer;
+import java.util.function.IntConsumer;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class Vaccines {
 
-    Map<String,Person> persons = new TreeMap<>();
+    Population persons;
+    AgeBuckets ageBuckets;
+    AllocationIndex plan;
+    SlotCalendar calendar = new SlotCalendar();
+    volatile List<List<String>> timeSlots;
+    volatile int[][] availability;
+    volatile Map<String, List<Integer>> available;
     Map<String,VacinationHup> vacinationHups = new TreeMap<>();
+    List<VacinationHup> hubById = new ArrayList<>();
     List<Integer> noHours = new ArrayList<>();
     List<Interval> intervals = new ArrayList<>();
-    Map<Integer,Person> allocationPlan = new TreeMap<>();
+    AgeTable ageTable = new AgeTable(intervals);
+    int[] oldestFirst = new int[0];
+    WeekPlan lastWeek;
     BiConsumer<Integer, String> lsnr = null;
+    private ForkJoinPool pool;
+    /** Direct buffers of the plan exports done so far, as many as ran at once, reused by the next ones. */
+    private final Queue<ByteBuffer> exportBuffers = new ConcurrentLinkedQueue<>();
 
 
 
     public final static int CURRENT_YEAR = java.time.LocalDate.now().getYear();
 
+    static final String HEADER = "SSN,LAST,FIRST,YEAR";
+    static final int LOAD_BATCH = 4096;
+
+    public Vaccines() {
+        this(false);
+    }
+
+    /**
+     * Creates a vaccination system.
+     *
+     * With {@code offHeap} set, the per-person data (SSN, birth year, names and
+     * allocation state) is kept in direct buffers instead of the heap, so that
+     * GC pauses do not grow with the population; {@code Person} objects are
+     * only created when information about a person is requested.
+     *
+     * @param offHeap whether to keep the population outside the heap
+     */
+    public Vaccines(boolean offHeap) {
+        persons = offHeap ? new OffHeapPopulation() : new HeapPopulation();
+        ageBuckets = new AgeBuckets(persons);
+        plan = new AllocationIndex(persons);
+    }
+
     // R1
     /**
      * Add a new person to the vaccination system.
@@ -33,11 +80,52 @@ public class Vaccines {
      * @return {@code false} if ssn is duplicate,
      */
     public boolean addPerson(String first, String lastName, String ssn, int year) {
-        if (persons.containsKey(ssn))
-        return false;
+        return indexed(persons.add(first, lastName, ssn, year)) >= 0;
+    }
 
-        persons.put(ssn,new Person(first,lastName,ssn,year));
-        return true;
+    /**
+     * Starts registering persons from many threads at once with
+     * {@link #register}; nothing else may be done with the system until
+     * {@link #endRegistrations}.
+     */
+    void beginRegistrations() {
+        persons.beginShared();
+    }
+
+    /**
+     * Same as {@link #addPerson(String, String, String, int)}, for an SSN
+     * already packed by {@link SsnCodec}, while other threads do the same
+     * (see {@link Population#addShared}). The person is only counted and put
+     * in its age interval by {@link #endRegistrations}.
+     */
+    boolean register(String first, String lastName, long hi, int lo, String ssn, int year) {
+        return persons.addShared(first, lastName, hi, lo, ssn, year) >= 0;
+    }
+
+    /**
+     * Ends registering persons from many threads, once all of them are done.
+     *
+     * @return the id of the first person registered
+     */
+    int endRegistrations() {
+        int from = persons.endShared();
+        for (int id = from; id < persons.size(); id++)
+            indexed(id);
+        return from;
+    }
+
+    /**
+     * Adds a newly stored person to the age interval index.
+     *
+     * @param id the id returned by {@link Population#add}
+     * @return the same id
+     */
+    private int indexed(int id) {
+        if (id >= 0) {
+            ageBuckets.add(intervalId(id), id);
+            lastWeek = null;
+        }
+        return id;
     }
 
     /**
@@ -59,8 +147,8 @@ public class Vaccines {
      * @return info about the person
      */
     public String getPerson(String ssn) {
-
-        return persons.get(ssn).toString();
+        int id = persons.id(ssn);
+        return id < 0 ? null : person(id).toString();
     }
 
     /**
@@ -71,7 +159,43 @@ public class Vaccines {
      */
     public int getAge(String ssn) {
 
-        return CURRENT_YEAR - persons.get(ssn).getYear();
+        int id = persons.id(ssn);
+        if (id < 0)
+            throw new NoSuchElementException("unknown SSN " + ssn);
+        return CURRENT_YEAR - persons.year(id);
+    }
+
+    /**
+     * Builds a {@code Person} view of a stored person.
+     */
+    Person person(int id) {
+        Person p = new Person(persons.first(id), persons.last(id), persons.ssn(id), persons.year(id));
+        p.agegroup = intervalOf(id);
+        p.allocated = persons.allocated(id);
+        if (p.allocated) {
+            p.hupAssigend = hubById.get(persons.hub(id)).name;
+            p.dayAssigned = persons.day(id);
+        }
+        return p;
+    }
+
+    /**
+     * Retrieves the age interval of a person.
+     *
+     * @return the interval, or {@code null} if the age is not in any interval
+     */
+    Interval intervalOf(int id) {
+        int i = intervalId(id);
+        return i < 0 ? null : intervals.get(i);
+    }
+
+    /**
+     * Retrieves the id of the age interval of a person.
+     *
+     * @return the interval id, or {@code -1} if the age is not in any interval
+     */
+    int intervalId(int id) {
+        return ageTable.interval(CURRENT_YEAR - persons.year(id));
     }
 
     /**
@@ -91,6 +215,21 @@ public class Vaccines {
             intervals.add( new Interval(breaks[i],breaks[i+1]));
         }
         intervals.add(new Interval(breaks[breaks.length-1 ],Integer.MAX_VALUE));
+        intervalsChanged();
+    }
+
+    /**
+     * Rebuilds what depends on the age intervals after they changed.
+     */
+    void intervalsChanged() {
+        for (int i = 0; i < intervals.size(); i++)
+            intervals.get(i).id = i;
+        ageTable = new AgeTable(intervals);
+        oldestFirst = intervals.stream().sorted(Comparator.reverseOrder()).mapToInt(i -> i.id).toArray();
+        ageBuckets.reset(intervals.size());
+        for (int id = 0; id < persons.size(); id++)
+            ageBuckets.add(intervalId(id), id);
+        lastWeek = null;
     }
 
 
@@ -118,12 +257,15 @@ public class Vaccines {
      */
     public Collection<String> getInInterval(String interval) {
 
-       List<String> intervals = persons.values().stream()
-               .filter(person -> person.getAgegroup(this.intervals).toString().equals(interval))
-               .map(person -> person.getSsn())
-               .collect(Collectors.toList());
-
-        return intervals;
+        List<String> ssns = new ArrayList<>();
+        for (Interval i : intervals) {
+            if (!i.toString().equals(interval))
+                continue;
+            int[] ids = ageBuckets.ids(i.id);
+            for (int k = 0; k < ageBuckets.size(i.id); k++)
+                ssns.add(persons.ssn(ids[k]));
+        }
+        return ssns;
     }
 
     // R2
@@ -137,7 +279,14 @@ public class Vaccines {
         if (vacinationHups.containsKey(name))
             throw new VaccineException("duplicate name");
 
-        vacinationHups.put(name,new VacinationHup(name));
+        VacinationHup hub = new VacinationHup(name);
+        hub.id = hubById.size();
+        vacinationHups.put(name,hub);
+        hubById.add(hub);
+        plan.addHub();
+        calendar.addHub();
+        capacityChanged();
+        lastWeek = null;
     }
 
     /**
@@ -167,7 +316,15 @@ public class Vaccines {
         vacinationHups.get(name).setCountDoctors(countDoctors);
         vacinationHups.get(name).setnNurses(nNurses);
         vacinationHups.get(name).setOther(other);
-        return;
+        capacityChanged();
+    }
+
+    /**
+     * Drops the cached availability, to be called when hubs, staff or hours change.
+     */
+    private void capacityChanged() {
+        availability = null;
+        available = null;
     }
 
     /**
@@ -201,29 +358,149 @@ public class Vaccines {
      * @throws VaccineException in case of error in the header
      */
     public long loadPeople(Reader people) throws IOException, VaccineException {
+        return loadPeople(people, LoadBatches.NONE);
+    }
+
+    /**
+     * Same as {@link #loadPeople(Reader)}, adding the lines read by every
+     * read of the reader as a batch.
+     */
+    long loadPeople(Reader people, LoadBatches batches) throws IOException, VaccineException {
         // Hint:
         BufferedReader br = new BufferedReader(people);
         if (br == null)
             throw new IOException();
         String s = br.readLine();
-        if ( !(s.equals("SSN,LAST,FIRST,YEAR"))) {
+        if ( !(HEADER.equals(s))) {
             if(lsnr!= null) lsnr.accept(1,s);
             throw new VaccineException("error header");
         }
-        String line ;
+        // lines are split in place, as BufferedReader.readLine() would do
+        CsvTokenizer tk = new CsvTokenizer();
+        Map<Integer, String> errors = new LinkedHashMap<>();
+        char[] buf = new char[8192];
+        int len = 0;
         int count = 1;
-        while ((line = br.readLine()) != null){
-            count++;
-            List<String> lineRead = Arrays.stream(line.split(",")).collect(Collectors.toList());
-            if (persons.containsKey(lineRead.get(0)) || lineRead.size() != 4) {
-               if(lsnr!= null) lsnr.accept(count,line);
-                continue;
+        boolean skipLF = false;
+        int n;
+        while ((n = br.read(buf, len, buf.length - len)) != -1) {
+            int end = len + n;
+            int start = 0;
+            batches.begin();
+            try {
+                for (int i = len; i < end; i++) {
+                    char c = buf[i];
+                    if (skipLF) {
+                        skipLF = false;
+                        if (c == '\n') {
+                            start = i + 1;
+                            continue;
+                        }
+                    }
+                    if (c != '\n' && c != '\r')
+                        continue;
+                    loadLine(tk, buf, start, i, ++count, errors);
+                    skipLF = c == '\r';
+                    start = i + 1;
+                }
+            } finally {
+                batches.end();
             }
-            persons.put(lineRead.get(0),new Person(lineRead.get(0),lineRead.get(1),lineRead.get(2),Integer.parseInt(lineRead.get(3))));
+            notify(errors);
+            len = end - start;
+            System.arraycopy(buf, start, buf, 0, len);
+            if (len == buf.length)
+                buf = Arrays.copyOf(buf, len * 2);
+        }
+        if (len > 0) {
+            batches.begin();
+            try {
+                loadLine(tk, buf, 0, len, ++count, errors);
+            } finally {
+                batches.end();
+            }
+            notify(errors);
         }
         return count;
     }
 
+    private void loadLine(CsvTokenizer tk, char[] buf, int start, int end, int lineNo, Map<Integer, String> errors) {
+        if (!tk.split(buf, start, end) || add(tk, buf) < 0) {
+            if (lsnr != null) errors.put(lineNo, new String(buf, start, end - start));
+        }
+    }
+
+    /**
+     * Notifies the listener of the errors of a batch, in line order.
+     */
+    private void notify(Map<Integer, String> errors) {
+        if (lsnr != null)
+            errors.forEach(lsnr);
+        errors.clear();
+    }
+
+    private int add(CsvTokenizer tk, char[] buf) {
+        long hi = tk.ssnHi(buf);
+        if (hi == SsnCodec.UNPACKED)
+            return indexed(persons.add(tk.first(buf), tk.last(buf), tk.ssn(buf), tk.year()));
+        return indexed(persons.add(tk.first(buf), tk.last(buf), hi, tk.ssnLo(buf), null, tk.year()));
+    }
+
+    /**
+     * Load people information stored in a CSV file.
+     *
+     * Same as {@link #loadPeople(Reader)}, but the file is memory mapped
+     * and parsed in parallel, in chunks cut at line boundaries; the chunks
+     * are added as they are parsed, so only a few of them are held at once.
+     * The file is expected to be UTF-8 encoded.
+     * <p>
+     * The outcome is the same as the sequential load: the first occurrence
+     * of an SSN wins, the returned count is the same and the load listener
+     * is notified in ascending line order.
+     *
+     * @param people path of the CSV file
+     * @return number of correctly added people
+     * @throws IOException in case of IO error
+     * @throws VaccineException in case of error in the header
+     */
+    public long loadPeople(Path people) throws IOException, VaccineException {
+        return loadPeople(people, LoadBatches.NONE);
+    }
+
+    /**
+     * Same as {@link #loadPeople(Path)}, adding the lines of the file in
+     * batches of at most {@link #LOAD_BATCH} lines.
+     */
+    long loadPeople(Path people, LoadBatches batches) throws IOException, VaccineException {
+        try (FileChannel ch = FileChannel.open(people, StandardOpenOption.READ)) {
+            PeopleFileLoader loader = new PeopleFileLoader(ch);
+            String s = loader.header();
+            if (!HEADER.equals(s)) {
+                if (lsnr != null) lsnr.accept(1, s);
+                throw new VaccineException("error header");
+            }
+            Map<Integer, String> errors = new LinkedHashMap<>();
+            int[] count = { 1 };
+            loader.body(chunk -> {
+                for (int from = 0; from < chunk.lines(); from += LOAD_BATCH) {
+                    batches.begin();
+                    try {
+                        for (int i = from; i < Math.min(from + LOAD_BATCH, chunk.lines()); i++) {
+                            count[0]++;
+                            if (!chunk.valid(i) || indexed(chunk.addTo(persons, i)) < 0) {
+                                if (lsnr != null) errors.put(count[0], chunk.line(i));
+                            }
+                        }
+                    } finally {
+                        batches.end();
+                    }
+                    notify(errors);
+                }
+            });
+            return count[0];
+        }
+    }
+
     // R4
     /**
      * Define the amount of working hours for the days of the week.
@@ -236,10 +513,13 @@ public class Vaccines {
     public void setHours(int... hs) throws VaccineException {
         if (hs.length != 7 || Arrays.stream(hs).max().getAsInt() > 12)
             throw new VaccineException("wrong hours");
+        noHours.clear();
         for (int x:
              hs) {
             noHours.add(x);
         }
+        timeSlots = null;
+        capacityChanged();
     }
 
     /**
@@ -252,30 +532,19 @@ public class Vaccines {
      * digits filled with leading 0.
      * <p>
      * Returns a list with 7 elements, each with the time slots of the corresponding day of the week.
+     * <p>
+     * The lists are unmodifiable and shared by all the calls until the hours change.
      *
      * @return the list hours for each day of the week
      */
     public List<List<String>> getHours() {
-        List<List<String>> timeSlots = new ArrayList<>();
-        int cuhour = 9 ;
-        for (int i = 0; i <7; i++) {
-            List<String>  temp = new ArrayList<>();
-            int hours = noHours.get(i);
-            for (int j = 0; j < hours; j++) {
-                String hs = "0";
-                cuhour = 9+j;
-                if (cuhour < 10)
-                    hs = "0" + cuhour;
-                else
-                    hs = ""+ cuhour;
-                temp.add(hs +":00");
-                temp.add(hs + ":15");
-                temp.add(hs + ":30");
-                temp.add(hs+ ":45");
-            }
-            timeSlots.add(temp);
+        if (timeSlots == null) {
+            List<String> labels = Arrays.asList(SlotCalendar.LABELS);
+            List<List<String>> days = new ArrayList<>();
+            for (int i = 0; i <7; i++)
+                days.add(Collections.unmodifiableList(labels.subList(0, Math.max(0, noHours.get(i) * 4))));
+            timeSlots = Collections.unmodifiableList(days);
         }
-
         return timeSlots;
     }
 
@@ -288,7 +557,22 @@ public class Vaccines {
      * @return
      */
     public int getDailyAvailable(String hub, int d) {
-        return noHours.get(d)*vacinationHups.get(hub).capacity();
+        return availability()[vacinationHups.get(hub).id][d];
+    }
+
+    /**
+     * Retrieves the available slots of every hub, by hub id, on every day.
+     */
+    private int[][] availability() {
+        if (availability == null) {
+            int[][] a = new int[hubById.size()][noHours.size()];
+            for (VacinationHup hub : hubById) {
+                for (int d = 0; d < noHours.size(); d++)
+                    a[hub.id][d] = noHours.get(d) * hub.capacity();
+            }
+            availability = a;
+        }
+        return availability;
     }
 
     /**
@@ -299,15 +583,18 @@ public class Vaccines {
      * <p>
      * The availability is computed as the number of working hours of that day
      * multiplied by the capacity (see {@link #estimateCapacity} of the hub.
+     * <p>
+     * The map is unmodifiable and shared by all the calls until hubs, staff or hours change.
      *
      * @return
      */
     public Map<String, List<Integer>> getAvailable() {
-        Map<String, List<Integer>> available = new TreeMap<>();
-        for (String s : vacinationHups.keySet())
-        {
-            int temp = vacinationHups.get(s).capacity();
-            available.put(s ,noHours.stream().map(o -> o * temp).collect(Collectors.toList()));
+        if (available == null) {
+            int[][] a = availability();
+            Map<String, List<Integer>> hubs = new TreeMap<>();
+            for (VacinationHup hub : vacinationHups.values())
+                hubs.put(hub.name, Collections.unmodifiableList(Arrays.stream(a[hub.id]).boxed().collect(Collectors.toList())));
+            available = Collections.unmodifiableMap(hubs);
         }
         return available;
     }
@@ -332,22 +619,24 @@ public class Vaccines {
         int noofSlots = getDailyAvailable(hub,d);
         int maxSlots = noofSlots;
         List<String> alocSSN = new ArrayList<>();
-        intervals = intervals.stream().sorted(Comparator.reverseOrder()).collect(Collectors.toList());
-        for (Person p :
-                persons.values()) {
-            p.getAgegroup(intervals);
-        }
-        for (int i = 0; i < intervals.size(); i++) {
+        for (int i : oldestFirst) {
             alocSSN.addAll(allocateAgeGroup(intervals.get(i), (int) (noofSlots*0.4), hub,d));
             noofSlots = maxSlots-alocSSN.size();
         }
-        alocSSN.addAll(allocateAgeGroup(intervals.get(0),noofSlots, hub,d));
+        alocSSN.addAll(allocateAgeGroup(intervals.get(oldestFirst[0]),noofSlots, hub,d));
         return alocSSN;
     }
 
     public List<String> allocateAgeGroup(Interval interval,int noofSlots,String hub,int d){
-        List<String> alocSSN = persons.values().stream().filter(person -> person.getAgegroup(intervals) == interval && person.allocated == false).limit(noofSlots).map(Person::getSsn).collect(Collectors.toList());
-        persons.values().stream().filter(p -> alocSSN.contains(p.getSsn())).forEach(p-> {p.allocated =true;p.hupAssigend = hub;p.dayAssigned=d;});
+        int h = vacinationHups.get(hub).id;
+        int hourly = vacinationHups.get(hub).capacity();
+        lastWeek = null;
+        List<String> alocSSN = new ArrayList<>();
+        ageBuckets.allocate(interval.id, noofSlots, h, d, id -> {
+            plan.add(h, d, id);
+            persons.setSlot(id, calendar.book(h, d, hourly, slotCount(d)));
+            alocSSN.add(persons.ssn(id));
+        });
         return alocSSN;
     }
     /**
@@ -355,7 +644,12 @@ public class Vaccines {
      * clears their allocation status
      */
     public void clearAllocation() {
-       persons.values().stream().forEach(person ->person.allocated = false);
+       persons.clearAllocation();
+       ageBuckets.rewind();
+       plan.clear();
+       calendar.clear();
+       persons.newCalendar();
+       lastWeek = null;
     }
 
     /**
@@ -377,25 +671,492 @@ public class Vaccines {
      * @return the list of daily allocations
      */
     public List<Map<String, List<String>>> weekAllocate() {
-        for (String hubname: vacinationHups.keySet()) {
-            for (int i = 0; i < 7 ; i++) {
-                allocate(hubname,i); } }
-
-        List<Map<String, List<String>>>  weeklyPlan= new ArrayList<>();
-        for (int i = 0; i < 7; i++) {
-            Map<String, List<String>> hupList = new TreeMap<>();
-            for (String hubname:
-                vacinationHups.keySet() ) {
-            hupList.put(hubname, allocatedToHub(hubname,i));
+        return weekAllocate(1);
+    }
+
+    /**
+     * Computes the general allocation plan for the week using up to
+     * {@code parallelism} threads.
+     * <p>
+     * The plan is the same computed by {@link #weekAllocate()}: how many
+     * persons every hub takes from every age interval on every day is
+     * worked out first, on the numbers alone, then the persons of the
+     * different intervals are picked concurrently.
+     *
+     * @param parallelism number of threads to use
+     * @return the list of daily allocations
+     */
+    public List<Map<String, List<String>>> weekAllocate(int parallelism) {
+        boolean fromClear = persons.countAllocated() == 0;
+        WeekPlan week = newWeek();
+        plan(week, 0, parallelism);
+        lastWeek = fromClear ? week : null;
+        return week.plan();
+    }
+
+    /**
+     * Plans a vaccination campaign, one week after the other, until no more
+     * persons can be allocated.
+     * <p>
+     * Every week is allocated as by {@link #weekAllocate()}, on top of the
+     * allocations of the weeks before, but its plan only lists the persons
+     * allocated in that week, and its appointments start from an empty
+     * calendar. Weeks are planned lazily, as the iterator is
+     * consumed, so only the plan of the current week is kept.
+     * The campaign ends when every person in the age intervals is allocated,
+     * or when the slots of a week would not allocate any of those left.
+     *
+     * @param parallelism number of threads to plan every week with
+     * @return an iterator over the week plans
+     */
+    public Iterator<List<Map<String, List<String>>>> campaign(int parallelism) {
+        return new Iterator<List<Map<String, List<String>>>>() {
+            @Override
+            public boolean hasNext() {
+                if (oldestFirst.length == 0)
+                    return false;
+                WeekPlan week = newWeek();
+                int[] available = week.available.clone();
+                WeekPlanner.counts(week.slots, 0, oldestFirst, available, week.counts, null);
+                return !Arrays.equals(available, week.available);
             }
-            weeklyPlan.add(hupList);
+
+            @Override
+            public List<Map<String, List<String>>> next() {
+                if (!hasNext())
+                    throw new NoSuchElementException("campaign completed");
+                WeekPlan week = newWeek();
+                week.weekOnly = true;
+                calendar.clear();
+                persons.newCalendar();
+                plan(week, 0, parallelism);
+                lastWeek = null;
+                return week.plan();
+            }
+        };
+    }
+
+    /**
+     * Projects in which of the coming weeks every age interval will be fully
+     * allocated, if every week is planned as {@link #weekAllocate()} does
+     * with the current hours and staff.
+     * <p>
+     * The map associates the age interval labels to the week numbers,
+     * {@code 1} being the next planned week. Intervals whose persons are all
+     * allocated already report {@code 0}, intervals that would never be fully
+     * allocated report {@code -1}.
+     *
+     * @return the projected week of full coverage by age interval
+     */
+    public Map<String, Integer> coverageWeeks() {
+        if (oldestFirst.length == 0)
+            return new TreeMap<>();
+        WeekPlan week = newWeek();
+        int[] weeks = WeekPlanner.coverage(week.slots, oldestFirst, week.available);
+        Map<String, Integer> coverage = new TreeMap<>();
+        for (Interval i : intervals)
+            coverage.put(i.toString(), weeks[i.id]);
+        return coverage;
+    }
+
+    /**
+     * Starts the record of a week with the current hubs, slots and available persons.
+     */
+    private WeekPlan newWeek() {
+        WeekPlan week = new WeekPlan(new ArrayList<>(vacinationHups.values()), intervals.size());
+        for (int p = 0; p < week.size(); p++)
+            week.slots[p] = slots(week, p);
+        for (int i = 0; i < intervals.size(); i++)
+            week.available[i] = ageBuckets.available(i);
+        return week;
+    }
+
+    /**
+     * Recomputes the allocation plan for the week after the staff of some
+     * hubs or the working hours changed.
+     * <p>
+     * The result is the same as {@link #clearAllocation} followed by
+     * {@link #weekAllocate()}. If the last allocations were made by a
+     * {@code weekAllocate} starting from no allocated persons, and no person, interval
+     * or hub was added since, only the allocations from the first hub and
+     * day whose capacity changed onward are computed again.
+     *
+     * @return the list of daily allocations
+     */
+    public List<Map<String, List<String>>> replanWeek() {
+        WeekPlan week = lastWeek;
+        if (week == null) {
+            clearAllocation();
+            return weekAllocate();
+        }
+        int from = 0;
+        while (from < week.size() && week.slots[from] == slots(week, from))
+            from++;
+        if (from < week.size()) {
+            for (int i = 0; i < intervals.size(); i++) {
+                int taken = week.taken(i, from);
+                ageBuckets.release(i, week.ids[i], taken, week.ids[i].length, week.marks[i][from]);
+                persons.allocatedCount -= week.ids[i].length - taken;
+            }
+            for (int p = from; p < week.size(); p++) {
+                plan.clear(week.hubIds[p], week.days[p]);
+                calendar.clear(week.hubIds[p], week.days[p]);
+            }
+            plan(week, from, 1);
+        }
+        return week.plan();
+    }
+
+    private int slots(WeekPlan week, int p) {
+        return getDailyAvailable(week.hubs.get(p / AllocationIndex.DAYS).name, week.days[p]);
+    }
+
+    /**
+     * Computes the allocations of a week from {@code from} on, the ones
+     * before having already been made.
+     */
+    private void plan(WeekPlan week, int from, int parallelism) {
+        int n = week.size();
+        for (int p = from; p < n; p++)
+            week.slots[p] = slots(week, p);
+        int[] available = new int[intervals.size()];
+        for (int i = 0; i < available.length; i++)
+            available[i] = week.available[i] - week.taken(i, from);
+        WeekPlanner.counts(week.slots, from, oldestFirst, available, week.counts, week.remainders);
+        int[][] offsets = new int[available.length][n + 1];
+        for (int i = 0; i < available.length; i++) {
+            for (int p = 0; p < n; p++)
+                offsets[i][p + 1] = offsets[i][p] + week.counts[i][p];
+        }
+
+        inParallel(parallelism, available.length, i -> {
+            int[] allocated = ageBuckets.allocate(i, week.counts[i], week.hubIds, week.days, from, week.marks[i]);
+            int[] ids = Arrays.copyOf(week.ids[i], offsets[i][from] + allocated.length);
+            System.arraycopy(allocated, 0, ids, offsets[i][from], allocated.length);
+            week.ids[i] = ids;
+        });
+        inParallel(parallelism, n - from, q -> {
+            int p = from + q;
+            int h = week.hubIds[p];
+            int d = week.days[p];
+            int hourly = week.hubs.get(p / AllocationIndex.DAYS).capacity();
+            IdList own = new IdList(persons);
+            IntConsumer allocated = id -> {
+                plan.add(h, d, id);
+                persons.setSlot(id, calendar.book(h, d, hourly, slotCount(d)));
+                if (week.weekOnly)
+                    own.add(id);
+            };
+            // in the order allocate would allocate them, for the appointments
+            int oldest = oldestFirst[0];
+            int split = offsets[oldest][p + 1] - week.remainders[p];
+            for (int i : oldestFirst) {
+                for (int k = offsets[i][p]; k < (i == oldest ? split : offsets[i][p + 1]); k++)
+                    allocated.accept(week.ids[i][k]);
+            }
+            for (int k = split; k < offsets[oldest][p + 1]; k++)
+                allocated.accept(week.ids[oldest][k]);
+            week.ssns.set(p, week.weekOnly ? ssns(own.ids(), own.size()) : ssns(plan.ids(h, d), plan.size(h, d)));
+        });
+        for (int i = 0; i < available.length; i++)
+            persons.allocatedCount += offsets[i][n] - offsets[i][from];
+    }
+
+    /**
+     * Runs {@code task} for every int in {@code [0, n)} on up to
+     * {@code parallelism} threads, on the calling thread alone if just one.
+     */
+    private void inParallel(int parallelism, int n, IntConsumer task) {
+        if (parallelism <= 1) {
+            for (int i = 0; i < n; i++)
+                task.accept(i);
+            return;
+        }
+        try {
+            pool(parallelism).submit(() -> IntStream.range(0, n).parallel().forEach(task)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw new IllegalStateException(e.getCause());
         }
-        return weeklyPlan;
     }
+
+    /**
+     * Retrieves the pool of this system, created again only when a
+     * different parallelism is asked for. A replaced pool is not shut
+     * down, since another thread may still be submitting to it; its
+     * idle workers exit on their own.
+     */
+    private synchronized ForkJoinPool pool(int parallelism) {
+        if (pool == null || pool.getParallelism() != parallelism)
+            pool = new ForkJoinPool(parallelism);
+        return pool;
+    }
+
     public List<String> allocatedToHub(String name , int d){
-        return persons.values().stream()
-                .filter(p -> p.allocated == true && p.hupAssigend.equals(name) && p.dayAssigned == d)
-                .map(Person::getSsn).collect(Collectors.toList());
+        VacinationHup hub = vacinationHups.get(name);
+        if (hub == null || d < 0 || d >= AllocationIndex.DAYS)
+            return new ArrayList<>();
+        return ssns(plan.ids(hub.id, d), plan.size(hub.id, d));
+    }
+
+    /**
+     * Takes a read-only snapshot of the current allocations, to be queried
+     * from any number of threads while the system goes on changing.
+     *
+     * @return the snapshot
+     */
+    public PlanView freezePlan() {
+        return new PlanView(persons, plan, hubById);
+    }
+
+    /**
+     * Writes the current allocations to a channel as CSV records
+     * {@code HUB,DAY,SSN}, hub by hub in definition order (see {@link PlanExport}).
+     *
+     * The records are streamed from the allocation lists through a direct
+     * buffer reused across the exports of this system, so the memory used
+     * does not depend on the size of the plan. The channel is left open.
+     *
+     * @param out the channel to write to
+     * @throws IOException in case of IO error
+     */
+    public void exportPlan(WritableByteChannel out) throws IOException {
+        exportPlan(out, hubById);
+    }
+
+    /**
+     * Writes the current allocations to one CSV file per hub, as
+     * {@link #exportPlan(WritableByteChannel)} does, using up to
+     * {@code parallelism} threads. Every file is named after its hub
+     * (see {@link PlanExport#fileName}) and replaced if it exists.
+     *
+     * @param dir the directory of the files, created if it does not exist
+     * @param parallelism number of threads to use
+     * @throws IOException in case of IO error
+     */
+    public void exportPlan(Path dir, int parallelism) throws IOException {
+        Files.createDirectories(dir);
+        try {
+            inParallel(parallelism, hubById.size(), h -> {
+                VacinationHup hub = hubById.get(h);
+                try (FileChannel out = FileChannel.open(dir.resolve(PlanExport.fileName(hub)),
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    exportPlan(out, Collections.singletonList(hub));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Writes the records of some hubs after the header, with a buffer taken
+     * from those of the exports done before, if any is free.
+     */
+    private void exportPlan(WritableByteChannel out, List<VacinationHup> hubs) throws IOException {
+        ByteBuffer buf = exportBuffers.poll();
+        if (buf == null)
+            buf = PlanExport.buffer();
+        try {
+            PlanExport export = new PlanExport(persons, plan, out, buf);
+            export.header();
+            for (VacinationHup h : hubs)
+                export.hub(h);
+            export.flush();
+        } finally {
+            buf.clear();
+            exportBuffers.add(buf);
+        }
+    }
+
+    /**
+     * Retrieves the time of the appointment of a person.
+     * <p>
+     * As persons are allocated, they are booked in the first 15 minutes slot
+     * of the day (see {@link #getHours}) with room left at their hub. The
+     * hourly capacity of the hub (see {@link #estimateHourlyCapacity}) is
+     * split among the four slots of every hour, the first ones taking the
+     * remainder. The calendar is emptied by {@link #clearAllocation}.
+     *
+     * @param ssn SSN of the person
+     * @return the time of the appointment, as in {@link #getHours}, or {@code null}
+     *         if the person is not allocated or the day of the hub was full
+     */
+    public String getAppointment(String ssn) {
+        int id = persons.id(ssn);
+        if (id < 0 || !persons.allocated(id) || persons.slot(id) < 0)
+            return null;
+        return SlotCalendar.LABELS[persons.slot(id)];
+    }
+
+    /**
+     * Retrieves the times of the appointments of the persons allocated to a
+     * hub on a day, in the order of {@link #allocatedToHub}.
+     * <p>
+     * Times are shared among the appointments: no string is created for them.
+     *
+     * @param hub name of the hub
+     * @param d day of week index (0 = Monday)
+     * @return the list of appointment times, with {@code null} for persons without a slot
+     */
+    public List<String> getAppointments(String hub, int d) {
+        VacinationHup h = vacinationHups.get(hub);
+        if (h == null || d < 0 || d >= AllocationIndex.DAYS)
+            return new ArrayList<>();
+        int n = plan.size(h.id, d);
+        int[] ids = plan.ids(h.id, d);
+        List<String> times = new ArrayList<>(n);
+        for (int k = 0; k < n; k++) {
+            int slot = persons.slot(ids[k]);
+            times.add(slot < 0 ? null : SlotCalendar.LABELS[slot]);
+        }
+        return times;
+    }
+
+    /**
+     * Retrieves how many persons are booked in every time slot of a hub on a day.
+     *
+     * @param hub name of the hub
+     * @param d day of week index (0 = Monday)
+     * @return the number of booked persons for every slot of {@code getHours().get(d)}
+     */
+    public List<Integer> getSlotBookings(String hub, int d) {
+        VacinationHup h = vacinationHups.get(hub);
+        List<Integer> bookings = new ArrayList<>();
+        if (h == null || d < 0 || d >= AllocationIndex.DAYS)
+            return bookings;
+        for (int b : calendar.bookings(h.id, d, slotCount(d)))
+            bookings.add(b);
+        return bookings;
+    }
+
+    /**
+     * Books a person live in the first slot of a hub on a day with room left.
+     *
+     * Live bookings share the calendar with the planned appointments and
+     * never exceed the capacity of a slot, so at most
+     * {@link #getDailyAvailable} persons are booked in a hub on a day.
+     * The person is then allocated to the hub on that day, as if allocated
+     * by {@link #allocate}.
+     *
+     * @param ssn "codice fiscale" of the person
+     * @param hub name of the hub
+     * @param d day of week index (0 = Monday)
+     * @return the starting time of the slot, or {@code null} if the person or
+     * the hub is unknown, the person is already allocated or the day is full
+     */
+    public String book(String ssn, String hub, int d) {
+        Booking b = reserve(ssn, hub, d);
+        return b == null ? null : confirm(b);
+    }
+
+    /**
+     * Reserves the slot of a live booking, leaving the person untouched.
+     * Reservations may run concurrently with each other, not with anything
+     * that changes the system.
+     *
+     * @return the reservation, or {@code null} if the booking is not possible
+     */
+    Booking reserve(String ssn, String hub, int d) {
+        VacinationHup h = vacinationHups.get(hub);
+        int id = persons.id(ssn);
+        if (h == null || id < 0 || d < 0 || d >= noHours.size() || persons.allocated(id))
+            return null;
+        return reserve(id, h, d);
+    }
+
+    private Booking reserve(int id, VacinationHup h, int d) {
+        int generation = calendar.generation();
+        int slot = calendar.reserve(h.id, d, h.capacity(), slotCount(d));
+        return slot < 0 ? null : new Booking(id, h.id, d, slot, generation);
+    }
+
+    /**
+     * Allocates the person of a reservation. If the day of the hub has been
+     * cleared since the reservation, the slot is reserved again; if the
+     * person has been allocated meanwhile, the slot is given back.
+     *
+     * @return the starting time of the slot, or {@code null} if the booking is not possible anymore
+     */
+    String confirm(Booking b) {
+        if (calendar.cleared(b.hub, b.day, b.generation)) {
+            b = persons.allocated(b.id) ? null : reserve(b.id, hubById.get(b.hub), b.day);
+            if (b == null)
+                return null;
+        }
+        if (persons.allocated(b.id)) {
+            calendar.unreserve(b.hub, b.day, b.slot);
+            return null;
+        }
+        calendar.confirm(b.hub, b.day, b.slot);
+        persons.allocate(b.id, b.hub, b.day);
+        persons.setSlot(b.id, b.slot);
+        plan.add(b.hub, b.day, b.id);
+        int interval = intervalId(b.id);
+        if (interval >= 0)
+            ageBuckets.booked(interval);
+        lastWeek = null;
+        return SlotCalendar.LABELS[b.slot];
+    }
+
+    /**
+     * Books a person in the slot starting at a given time, as a live
+     * booking replayed from the {@link Journal} did.
+     */
+    void rebook(String ssn, String hub, int d, String time) {
+        VacinationHup h = vacinationHups.get(hub);
+        int slot = Arrays.asList(SlotCalendar.LABELS).indexOf(time);
+        calendar.restore(h.id, d, slot);
+        confirm(new Booking(persons.id(ssn), h.id, d, slot, calendar.generation()));
+    }
+
+    /**
+     * Cancels the allocation of a person, whether booked live or planned,
+     * giving the slot back to the hub. The slot of a person allocated in an
+     * earlier week of a {@link #campaign} is not given back, since the
+     * calendar of that week has been emptied already.
+     *
+     * @param ssn "codice fiscale" of the person
+     * @return {@code false} if the person is unknown or not allocated
+     */
+    public boolean cancel(String ssn) {
+        int id = persons.id(ssn);
+        if (id < 0 || !persons.allocated(id))
+            return false;
+        int h = persons.hub(id);
+        int d = persons.day(id);
+        if (persons.holdsSlot(id))
+            calendar.release(h, d, persons.slot(id));
+        plan.remove(h, d, id);
+        persons.unassign(id);
+        persons.allocatedCount--;
+        int interval = intervalId(id);
+        if (interval >= 0)
+            ageBuckets.cancelled(interval);
+        lastWeek = null;
+        return true;
+    }
+
+    /**
+     * Number of 15 minutes slots of a day.
+     */
+    private int slotCount(int d) {
+        return noHours.get(d) * 4;
+    }
+
+    private List<String> ssns(int[] ids, int n) {
+        List<String> ssns = new ArrayList<>(n);
+        for (int k = 0; k < n; k++)
+            ssns.add(persons.ssn(ids[k]));
+        return ssns;
     }
 
     // R5
@@ -407,12 +1168,7 @@ public class Vaccines {
      * @return proportion of allocated people
      */
     public double propAllocated() {
-        double count = 0;
-        for (Person p :
-                persons.values()) {
-            if (p.allocated)
-                count++;
-        }
+        double count = persons.countAllocated();
         return count/(double) countPeople();
     }
 
@@ -429,9 +1185,9 @@ public class Vaccines {
     public Map<String, Double> propAllocatedAge() {
         Map<String, Double> propAlloc =new TreeMap<>();
         for (Interval i: intervals) {
-            List<Person> c = persons.values().stream().filter(p->p.getAgegroup(intervals) == i).collect(Collectors.toList());
-            double x = c.stream().filter(p->p.allocated==true).count();
-            propAlloc.put(i.toString(),x/c.size() ); }
+            int c = ageBuckets.size(i.id);
+            double x = ageBuckets.allocated(i.id);
+            propAlloc.put(i.toString(),x/c ); }
         return propAlloc;
     }
     /**
@@ -447,12 +1203,43 @@ public class Vaccines {
 
     public Map<String, Double> distributionAllocated() {
         Map<String, Double> propAlloc =new TreeMap<>();
+        double y = persons.countAllocated();
         for (Interval i: intervals) {
-            double x = persons.values().stream().filter(p->p.getAgegroup(intervals) == i && p.allocated ==true).count();
-            double y = persons.values().stream().filter(o->o.allocated ==true).count();
+            double x = ageBuckets.allocated(i.id);
             propAlloc.put(i.toString(),x/y ); }
         return propAlloc;    }
 
+    /**
+     * Saves the persons, age intervals, hubs, hours and allocations of the
+     * system to a binary snapshot file, see {@link #restoreSnapshot}.
+     *
+     * @param file the snapshot file, replaced if it exists
+     * @throws IOException in case of IO error
+     */
+    public void saveSnapshot(Path file) throws IOException {
+        Snapshot.save(this, file, 0);
+    }
+
+    /**
+     * Creates a system from a snapshot file written by {@link #saveSnapshot}.
+     *
+     * The snapshot is memory mapped and its columns are copied as they are,
+     * so restoring is much faster than loading the persons again; the
+     * restored system answers every query as the saved one did.
+     *
+     * @param file the snapshot file
+     * @param offHeap whether to keep the population outside the heap
+     * @return the restored system
+     * @throws IOException in case of IO error, or if the file is not a valid snapshot
+     */
+    public static Vaccines restoreSnapshot(Path file, boolean offHeap) throws IOException {
+        return Snapshot.restore(file, offHeap);
+    }
+
+    public static Vaccines restoreSnapshot(Path file) throws IOException {
+        return restoreSnapshot(file, false);
+    }
+
     // R6
     /**
      * Defines a listener for the file loading method.
@@ -0,0 +1,270 @@
+package it.polito.oop.vaccination;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Small HTTP front end of a {@link ConcurrentVaccines} system, built on the
+ * HTTP server of the JDK.
+ *
+ * Requests take their arguments as query parameters and get plain text
+ * UTF-8 responses:
+ * <ul>
+ * <li>{@code GET /person?ssn=S}: the person, as {@link Vaccines#getPerson};</li>
+ * <li>{@code GET /age?ssn=S}: the age of the person;</li>
+ * <li>{@code GET /intervals}: the age interval labels, one per line;</li>
+ * <li>{@code GET /interval?label=L}: the SSNs of the persons in an interval, one per line;</li>
+ * <li>{@code GET /available?hub=H&day=D}: the daily availability of a hub;</li>
+ * <li>{@code GET /appointment?ssn=S}: the appointment time of a person;</li>
+ * <li>{@code POST /book?ssn=S&hub=H&day=D}: books a person live, see {@link Vaccines#book};</li>
+ * <li>{@code DELETE /book?ssn=S}: cancels the allocation of a person;</li>
+ * <li>{@code GET /assignment?ssn=S}: hub, day and appointment time of a person in the last plan;</li>
+ * <li>{@code GET /plan?hub=H&day=D}: the SSNs allocated to a hub on a day in the last plan, one per line.</li>
+ * </ul>
+ * The last two are answered from the {@link ConcurrentVaccines#planView frozen plan view},
+ * writing its serialized lists as they are.
+ * Unknown persons and appointments give {@code 404}, refused bookings
+ * {@code 409}, unknown hubs, days out of the week and missing or malformed
+ * parameters {@code 400}. A change that cannot be journaled gives
+ * {@code 500}: it may have been applied, but it is not durable.
+ * <p>
+ * The server multiplexes the connections on its own dispatcher thread and
+ * runs the handlers on a bounded pool of threads. Handlers do block: live
+ * bookings and cancellations take the write lock and wait for the journal
+ * to be forced to disk, and every handler waits while a plan or a load
+ * holds the write lock. So the pool is larger than the number of cores
+ * ({@link #DEFAULT_THREADS} by default), letting lookups go on while some
+ * handlers wait, and requests beyond it queue up.
+ */
+public class VaccinesServer {
+    /**
+     * Default number of threads running the handlers, several per core
+     * since handlers may wait for the lock or the disk.
+     */
+    public static final int DEFAULT_THREADS = Math.max(16, 4 * Runtime.getRuntime().availableProcessors());
+
+    private final ConcurrentVaccines v;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Creates a server, not started yet, with {@link #DEFAULT_THREADS} threads running the handlers.
+     *
+     * @param address address to listen at, port {@code 0} for any free port
+     * @throws IOException if the address cannot be bound
+     */
+    public VaccinesServer(ConcurrentVaccines v, InetSocketAddress address) throws IOException {
+        this(v, address, DEFAULT_THREADS);
+    }
+
+    /**
+     * Creates a server, not started yet.
+     *
+     * @param address address to listen at, port {@code 0} for any free port
+     * @param threads number of threads running the handlers, at most
+     * @throws IOException if the address cannot be bound
+     */
+    public VaccinesServer(ConcurrentVaccines v, InetSocketAddress address, int threads) throws IOException {
+        this.v = v;
+        server = HttpServer.create(address, 8192);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/person", get(q -> v.getPerson(q.get("ssn"))));
+        server.createContext("/age", get(q -> Integer.toString(v.getAge(q.get("ssn")))));
+        server.createContext("/intervals", get(q -> lines(v.getAgeIntervals())));
+        server.createContext("/interval", get(q -> lines(v.getInInterval(q.get("label")))));
+        server.createContext("/available",
+                get(q -> Integer.toString(v.getDailyAvailable(hub(q), day(q)))));
+        server.createContext("/appointment", get(q -> v.getAppointment(q.get("ssn"))));
+        server.createContext("/book", this::book);
+        server.createContext("/assignment", get(q -> assignment(v.planView(), q.get("ssn"))));
+        server.createContext("/plan", this::plan);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops the server, letting the exchanges in progress finish within a second.
+     */
+    public void stop() throws InterruptedException {
+        server.stop(1);
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Port the server listens at.
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * A query answered with a text, {@code null} meaning not found.
+     */
+    private interface Query {
+        String answer(Map<String, String> params);
+    }
+
+    private HttpHandler get(Query query) {
+        return exchange -> {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, "method not allowed");
+                return;
+            }
+            String answer;
+            try {
+                answer = query.answer(params(exchange));
+            } catch (NoSuchElementException e) {
+                answer = null;
+            } catch (UncheckedIOException e) {
+                send(exchange, 500, "internal error");
+                return;
+            } catch (RuntimeException e) {
+                send(exchange, 400, "bad request");
+                return;
+            }
+            if (answer == null)
+                send(exchange, 404, "not found");
+            else
+                send(exchange, 200, answer);
+        };
+    }
+
+    private void book(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        if (!"POST".equals(method) && !"DELETE".equals(method)) {
+            send(exchange, 405, "method not allowed");
+            return;
+        }
+        String ssn;
+        String hub = null;
+        int day = 0;
+        try {
+            Map<String, String> q = params(exchange);
+            ssn = q.get("ssn");
+            if (ssn == null)
+                throw new IllegalArgumentException("no ssn");
+            if ("POST".equals(method)) {
+                hub = hub(q);
+                day = day(q);
+            }
+        } catch (RuntimeException e) {
+            send(exchange, 400, "bad request");
+            return;
+        }
+        try {
+            if ("POST".equals(method)) {
+                String slot = v.book(ssn, hub, day);
+                if (slot == null)
+                    send(exchange, 409, "not booked");
+                else
+                    send(exchange, 200, slot);
+            } else if (v.cancel(ssn)) {
+                send(exchange, 200, "cancelled");
+            } else {
+                send(exchange, 404, "not found");
+            }
+        } catch (UncheckedIOException e) {
+            send(exchange, 500, "internal error");
+        }
+    }
+
+    private static String assignment(PlanView plan, String ssn) {
+        String hub = plan.hub(ssn);
+        return hub == null ? null : hub + "," + plan.day(ssn) + "," + plan.appointment(ssn);
+    }
+
+    private void plan(HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            send(exchange, 405, "method not allowed");
+            return;
+        }
+        ByteBuffer lines;
+        try {
+            Map<String, String> q = params(exchange);
+            lines = v.planView().serialized(hub(q), day(q));
+        } catch (RuntimeException e) {
+            send(exchange, 400, "bad request");
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, lines.hasRemaining() ? lines.remaining() : -1);
+        try (OutputStream out = exchange.getResponseBody()) {
+            Channels.newChannel(out).write(lines);
+        }
+    }
+
+    /**
+     * Retrieves the hub parameter.
+     *
+     * @throws IllegalArgumentException if the hub is missing or not defined
+     */
+    private String hub(Map<String, String> params) {
+        String hub = params.get("hub");
+        if (!v.isHub(hub))
+            throw new IllegalArgumentException("unknown hub " + hub);
+        return hub;
+    }
+
+    /**
+     * Retrieves the day parameter.
+     *
+     * @throws IllegalArgumentException if the day is missing, malformed or not a day of the week
+     */
+    private static int day(Map<String, String> params) {
+        int day = Integer.parseInt(params.get("day"));
+        if (day < 0 || day >= AllocationIndex.DAYS)
+            throw new IllegalArgumentException("no day " + day);
+        return day;
+    }
+
+    private static Map<String, String> params(HttpExchange exchange) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null)
+            return params;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0)
+                params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                        URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+        }
+        return params;
+    }
+
+    private static String lines(Iterable<String> values) {
+        StringBuilder sb = new StringBuilder();
+        for (String s : values)
+            sb.append(s).append('\n');
+        return sb.toString();
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = (body.endsWith("\n") ? body : body + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
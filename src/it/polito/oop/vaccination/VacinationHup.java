@@ -2,6 +2,7 @@ package it.polito.oop.vaccination;
 
 public class VacinationHup {
     String name;
+    int id;
     int countDoctors;
     int nNurses;
     int other;
@@ -0,0 +1,92 @@
+package it.polito.oop.vaccination;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Record of a weekly plan, kept to recompute only part of it when the
+ * capacity of some hub on some day changes.
+ *
+ * The allocations of the week are numbered in plan order: allocation
+ * {@code p} is for hub {@code hubs.get(p / 7)}, hubs being sorted by
+ * name, on day {@code p % 7}. For every age interval the record keeps
+ * how many persons each allocation took, in the {@link AgeBuckets}
+ * order, and where the allocation cursor of the interval was before it.
+ */
+class WeekPlan {
+    final List<VacinationHup> hubs;
+    final int[] hubIds;
+    final int[] days;
+    /** Slots of every allocation, as planned. */
+    final int[] slots;
+    /** Persons available in every interval when the week started. */
+    final int[] available;
+    /** Persons taken by every allocation, by interval and then allocation. */
+    final int[][] counts;
+    /** Persons taken by every allocation from the oldest interval after the others. */
+    final int[] remainders;
+    /** Cursor of every interval before every allocation, and after the last one. */
+    final int[][] marks;
+    /** Allocated persons of every interval, in allocation order. */
+    final int[][] ids;
+    /** SSNs allocated to the hub of every allocation on its day, sorted. */
+    final List<List<String>> ssns;
+    /**
+     * Whether {@link #ssns} only lists the persons allocated by this week,
+     * rather than all those allocated to the hub on the day.
+     */
+    boolean weekOnly;
+
+    WeekPlan(List<VacinationHup> hubs, int intervals) {
+        this.hubs = hubs;
+        int n = hubs.size() * AllocationIndex.DAYS;
+        hubIds = new int[n];
+        days = new int[n];
+        for (int p = 0; p < n; p++) {
+            hubIds[p] = hubs.get(p / AllocationIndex.DAYS).id;
+            days[p] = p % AllocationIndex.DAYS;
+        }
+        slots = new int[n];
+        available = new int[intervals];
+        counts = new int[intervals][n];
+        remainders = new int[n];
+        marks = new int[intervals][n + 1];
+        ids = new int[intervals][0];
+        ssns = new ArrayList<>(Collections.nCopies(n, null));
+    }
+
+    /**
+     * Number of allocations in the week.
+     */
+    int size() {
+        return slots.length;
+    }
+
+    /**
+     * Number of persons of an interval taken by the allocations before {@code p}.
+     */
+    int taken(int interval, int p) {
+        int taken = 0;
+        for (int q = 0; q < p; q++)
+            taken += counts[interval][q];
+        return taken;
+    }
+
+    /**
+     * Retrieves the plan in the {@link Vaccines#weekAllocate()} form,
+     * with lists of its own.
+     */
+    List<Map<String, List<String>>> plan() {
+        List<Map<String, List<String>>> weeklyPlan = new ArrayList<>();
+        for (int d = 0; d < AllocationIndex.DAYS; d++) {
+            Map<String, List<String>> hupList = new TreeMap<>();
+            for (int h = 0; h < hubs.size(); h++)
+                hupList.put(hubs.get(h).name, new ArrayList<>(ssns.get(h * AllocationIndex.DAYS + d)));
+            weeklyPlan.add(hupList);
+        }
+        return weeklyPlan;
+    }
+}
@@ -0,0 +1,104 @@
+package it.polito.oop.vaccination;
+
+import java.util.Arrays;
+
+/**
+ * Arithmetic side of the allocation plan.
+ *
+ * How many persons {@link Vaccines#allocate} takes from every interval only
+ * depends on the slots of the day and on how many persons of every interval
+ * are still available, not on who they are. The planner replays the
+ * allocations on those numbers alone, so that the persons can then be
+ * picked interval by interval, independently.
+ */
+final class WeekPlanner {
+
+    private WeekPlanner() {
+    }
+
+    /**
+     * Computes how many persons a sequence of allocations takes from every interval.
+     *
+     * @param slots available slots of every allocation, in allocation order
+     * @param from first allocation to compute, the counts of the ones before are left alone
+     * @param oldestFirst interval ids, oldest first
+     * @param available persons still available in every interval before allocation {@code from},
+     *                  updated as they are taken
+     * @param counts the counts, indexed by interval id and then by allocation
+     * @param remainders receives the part of the count of the oldest interval that every allocation
+     *                   takes after the others, with the slots they leave; may be {@code null}
+     */
+    static void counts(int[] slots, int from, int[] oldestFirst, int[] available, int[][] counts, int[] remainders) {
+        for (int[] c : counts)
+            Arrays.fill(c, from, slots.length, 0);
+        for (int p = from; p < slots.length; p++) {
+            int allocated = 0;
+            int free = slots[p];
+            for (int i : oldestFirst) {
+                allocated += take(counts, available, i, p, (int) (free * 0.4));
+                free = slots[p] - allocated;
+            }
+            int remainder = take(counts, available, oldestFirst[0], p, free);
+            if (remainders != null)
+                remainders[p] = remainder;
+        }
+    }
+
+    /**
+     * Projects in which week every interval runs out of available persons,
+     * if the same slots are allocated every week.
+     * <p>
+     * Once a week takes from every interval no more than what it leaves,
+     * the following weeks take the same until one of them would not, so
+     * those are skipped in one step.
+     *
+     * @param slots available slots of every allocation of a week, in allocation order
+     * @param oldestFirst interval ids, oldest first
+     * @param available persons still available in every interval
+     * @return for every interval, the week (1 for the first one) in which its last available person
+     *         is allocated, {@code 0} if it has none available, {@code -1} if that never happens
+     */
+    static int[] coverage(int[] slots, int[] oldestFirst, int[] available) {
+        int[] left = available.clone();
+        int[] weeks = new int[left.length];
+        for (int i = 0; i < left.length; i++)
+            weeks[i] = left[i] == 0 ? 0 : -1;
+        int[][] counts = new int[left.length][slots.length];
+        int[] taken = new int[left.length];
+        int week = 0;
+        while (true) {
+            int[] before = left.clone();
+            counts(slots, 0, oldestFirst, left, counts, null);
+            week++;
+            boolean progress = false;
+            long repeat = Integer.MAX_VALUE;
+            for (int i = 0; i < left.length; i++) {
+                taken[i] = before[i] - left[i];
+                if (taken[i] > 0) {
+                    progress = true;
+                    repeat = Math.min(repeat, left[i] / taken[i]);
+                }
+            }
+            if (!progress)
+                return weeks;
+            repeat = Math.min(repeat, Integer.MAX_VALUE - week);
+            week += repeat;
+            boolean done = true;
+            for (int i = 0; i < left.length; i++) {
+                left[i] -= repeat * taken[i];
+                if (left[i] == 0 && weeks[i] < 0)
+                    weeks[i] = week;
+                done &= left[i] == 0;
+            }
+            if (done || week == Integer.MAX_VALUE)
+                return weeks;
+        }
+    }
+
+    private static int take(int[][] counts, int[] available, int interval, int p, int n) {
+        int taken = Math.max(0, Math.min(n, available[interval]));
+        counts[interval][p] += taken;
+        available[interval] -= taken;
+        return taken;
+    }
+}
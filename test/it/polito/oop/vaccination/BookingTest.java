@@ -0,0 +1,72 @@
+package it.polito.oop.vaccination;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public final class BookingTest {
+
+    @Test
+    public void testCancelAcrossCampaignWeeks() throws VaccineException {
+        Vaccines vs = Fixtures.oneHub(30);
+        Iterator<List<Map<String, List<String>>>> campaign = vs.campaign(1);
+        List<String> week1 = campaign.next().get(0).get("Hub");
+        List<String> week2 = campaign.next().get(0).get("Hub");
+        assertEquals(10, week1.size());
+        assertEquals(10, week2.size());
+        assertEquals(Arrays.asList(3, 3, 2, 2), vs.getSlotBookings("Hub", 0));
+
+        for (String ssn : week1)
+            assertTrue(vs.cancel(ssn));
+        assertEquals("Cancelling a past week must not free slots of this week",
+                Arrays.asList(3, 3, 2, 2), vs.getSlotBookings("Hub", 0));
+
+        List<String> unallocated = new ArrayList<>(vs.getInInterval("[50,+)"));
+        unallocated.removeAll(week2);
+        for (String ssn : unallocated)
+            assertNull("Day is full, " + ssn + " must not be booked", vs.book(ssn, "Hub", 0));
+        assertEquals(10, vs.allocatedToHub("Hub", 0).size());
+
+        for (String ssn : week2)
+            assertTrue(vs.cancel(ssn));
+        assertEquals(Arrays.asList(0, 0, 0, 0), vs.getSlotBookings("Hub", 0));
+    }
+
+    @Test
+    public void testCancelFreesSlot() throws VaccineException {
+        Vaccines vs = Fixtures.oneHub(30);
+        List<String> allocated = vs.allocate("Hub", 0);
+        assertEquals(10, allocated.size());
+        String other = Fixtures.ssn(29);
+        assertNull(vs.book(other, "Hub", 0));
+
+        String first = allocated.get(0);
+        assertEquals("09:00", vs.getAppointment(first));
+        assertTrue(vs.cancel(first));
+        assertNull(vs.getAppointment(first));
+        assertEquals(Arrays.asList(2, 3, 2, 2), vs.getSlotBookings("Hub", 0));
+        assertEquals("09:00", vs.book(other, "Hub", 0));
+        assertEquals(Arrays.asList(3, 3, 2, 2), vs.getSlotBookings("Hub", 0));
+    }
+
+    @Test
+    public void testClearOfOtherDayKeepsReservation() throws VaccineException {
+        Vaccines vs = Fixtures.oneHub(30);
+        vs.setHours(1, 1, 0, 0, 0, 0, 0);
+        String ssn = Fixtures.ssn(0);
+        Booking pending = vs.reserve(ssn, "Hub", 1);
+        vs.calendar.clear(0, 0);
+        assertEquals("09:00", vs.confirm(pending));
+        assertEquals("09:00", vs.getAppointment(ssn));
+        assertEquals("The reservation must not be taken twice",
+                Arrays.asList(1, 0, 0, 0), vs.getSlotBookings("Hub", 1));
+    }
+}
@@ -0,0 +1,98 @@
+package it.polito.oop.vaccination;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public final class CsvTokenizerTest {
+    private static final String[] LINES = {
+            "RSSMRA40A01H501U,Rossi,Mario,1940",
+            "RSSMRA40A01H501U,Rossi,Mario,1940,,",
+            "RSSMRA40A01H501U,Rossi,Mario,1940,x",
+            "RSSMRA40A01H501U,Rossi,Mario,",
+            "RSSMRA40A01H501U,Rossi,Mario",
+            "RSSMRA40A01H501U,Rossi,Mario,,",
+            ",,,1940",
+            "a,b,c,+1940",
+            "a,b,c,-1940",
+            "a,b,c,-",
+            "a,b,c,+",
+            "a,b,c, 1940",
+            "a,b,c,19x0",
+            "a,b,c,2147483647",
+            "a,b,c,2147483648",
+            "a,b,c,-2147483648",
+            "a,b,c,-2147483649",
+            "a,b,c,99999999999999999999",
+            "a,b,c,\u0661\u0669\u0664\u0660",
+            Fixtures.RAW + ",M\u00fcller,Zo\u00eb,1950",
+            "",
+    };
+
+    /** The rule the tokenizer replaces, see {@link CsvTokenizer}. */
+    private static String[] reference(String line) {
+        String[] fields = line.split(",");
+        if (fields.length != 4)
+            return null;
+        try {
+            Integer.parseInt(fields[3]);
+            return fields;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Test
+    public void testChars() {
+        CsvTokenizer t = new CsvTokenizer();
+        for (String line : LINES) {
+            String[] expected = reference(line);
+            char[] buf = ("#" + line + "#").toCharArray();
+            assertEquals(line, expected != null, t.split(buf, 1, buf.length - 1));
+            if (expected == null)
+                continue;
+            assertEquals(line, expected[0], t.ssn(buf));
+            assertEquals(line, expected[1], t.last(buf));
+            assertEquals(line, expected[2], t.first(buf));
+            assertEquals(line, Integer.parseInt(expected[3]), t.year());
+        }
+    }
+
+    @Test
+    public void testBytes() {
+        CsvTokenizer t = new CsvTokenizer();
+        for (String line : LINES) {
+            String[] expected = reference(line);
+            ByteBuffer buf = ByteBuffer.wrap(("#" + line + "#").getBytes(StandardCharsets.UTF_8));
+            assertEquals(line, expected != null, t.split(buf, 1, buf.limit() - 1));
+            if (expected == null)
+                continue;
+            assertEquals(line, expected[0], t.ssn(buf));
+            assertEquals(line, expected[1], t.last(buf));
+            assertEquals(line, expected[2], t.first(buf));
+            assertEquals(line, Integer.parseInt(expected[3]), t.year());
+        }
+    }
+
+    @Test
+    public void testPackedSsn() {
+        CsvTokenizer t = new CsvTokenizer();
+        String line = "RSSMRA40A01H501U,Rossi,Mario,1940";
+        char[] chars = line.toCharArray();
+        ByteBuffer bytes = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        assertTrue(t.split(chars, 0, chars.length));
+        assertEquals("RSSMRA40A01H501U", SsnCodec.decode(t.ssnHi(chars), t.ssnLo(chars)));
+        assertTrue(t.split(bytes, 0, bytes.limit()));
+        assertEquals(SsnCodec.hi("RSSMRA40A01H501U"), t.ssnHi(bytes));
+        assertEquals(SsnCodec.lo("RSSMRA40A01H501U"), t.ssnLo(bytes));
+
+        line = Fixtures.RAW + ",M\u00fcller,Zo\u00eb,1950";
+        chars = line.toCharArray();
+        assertTrue(t.split(chars, 0, chars.length));
+        assertEquals("Spaces cannot be packed", SsnCodec.UNPACKED, t.ssnHi(chars));
+    }
+}
@@ -0,0 +1,83 @@
+package it.polito.oop.vaccination;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Persons and systems shared by the tests.
+ */
+final class Fixtures {
+    /** An SSN that cannot be packed, see {@link SsnCodec}. */
+    static final String RAW = "not a codice fiscale";
+
+    private Fixtures() {
+    }
+
+    /**
+     * A distinct codice fiscale for every {@code i} below one million.
+     */
+    static String ssn(int i) {
+        return String.format("RSSMRA%02dA%02dH%03dU", i % 100, i / 100 % 100, i / 10000);
+    }
+
+    /**
+     * {@code count} persons born from 1930 on, sharing their names, plus
+     * Zo&euml; M&uuml;ller whose SSN is {@link #RAW}; two hubs open six days
+     * and a week already allocated.
+     */
+    static Vaccines planned(boolean offHeap, int count) throws VaccineException {
+        Vaccines vs = new Vaccines(offHeap);
+        for (int i = 0; i < count; i++)
+            vs.addPerson("First" + i % 2500, "Last" + i % 101, ssn(i), 1930 + i % 80);
+        vs.addPerson("Zo\u00eb", "M\u00fcller", RAW, 1950);
+        vs.setAgeIntervals(30, 50, 70);
+        vs.defineHub("Hub 1");
+        vs.defineHub("Hub 2");
+        vs.setStaff("Hub 1", 2, 2, 2);
+        vs.setStaff("Hub 2", 1, 3, 1);
+        vs.setHours(4, 4, 4, 4, 4, 2, 0);
+        vs.weekAllocate();
+        return vs;
+    }
+
+    /**
+     * One hub at 10 persons per hour, open one hour on Monday only,
+     * with {@code count} persons born in 1940, all in the interval {@code [50,+)}.
+     */
+    static Vaccines oneHub(int count) throws VaccineException {
+        Vaccines vs = new Vaccines();
+        for (int i = 0; i < count; i++)
+            vs.addPerson("First" + i, "Last" + i, ssn(i), 1940);
+        vs.setAgeIntervals(50);
+        vs.defineHub("Hub");
+        vs.setStaff("Hub", 1, 1, 1);
+        vs.setHours(1, 0, 0, 0, 0, 0, 0);
+        return vs;
+    }
+
+    /**
+     * Same as {@link #oneHub(int)}, through a concurrent facade, so that a
+     * journal records the changes.
+     */
+    static ConcurrentVaccines oneHub(ConcurrentVaccines cv, int count) throws VaccineException {
+        for (int i = 0; i < count; i++)
+            cv.addPerson("First" + i, "Last" + i, ssn(i), 1940);
+        cv.setAgeIntervals(50);
+        cv.defineHub("Hub");
+        cv.setStaff("Hub", 1, 1, 1);
+        cv.setHours(1, 0, 0, 0, 0, 0, 0);
+        return cv;
+    }
+
+    /**
+     * Deletes a directory and everything in it.
+     */
+    static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+        }
+    }
+}
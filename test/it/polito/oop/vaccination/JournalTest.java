@@ -0,0 +1,129 @@
+package it.polito.oop.vaccination;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class JournalTest {
+    private static final String FIRST = Fixtures.ssn(0);
+    private static final String SECOND = Fixtures.ssn(1);
+
+    private Path dir;
+    private Path snapshot;
+    private Path journal;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("journal");
+        snapshot = dir.resolve("vaccines.snapshot");
+        journal = dir.resolve("vaccines.journal");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Fixtures.delete(dir);
+    }
+
+    private ConcurrentVaccines open() throws IOException {
+        return ConcurrentVaccines.open(snapshot, journal, false);
+    }
+
+    /**
+     * Everything observable through the facade, to compare a system with its replay.
+     */
+    private static List<Object> state(ConcurrentVaccines cv) {
+        List<Object> state = new ArrayList<>();
+        state.add(cv.countPeople());
+        state.add(cv.getAgeIntervals());
+        state.add(cv.getHubs());
+        state.add(cv.getHours());
+        state.add(cv.getAvailable());
+        state.add(cv.coverageWeeks());
+        for (String hub : cv.getHubs())
+            for (int d = 0; d < 7; d++) {
+                state.add(cv.allocatedToHub(hub, d));
+                state.add(cv.getAppointments(hub, d));
+                state.add(cv.getSlotBookings(hub, d));
+            }
+        for (int i = 0; i < 200; i++)
+            state.add(cv.getAppointment(Fixtures.ssn(i)));
+        return state;
+    }
+
+    @Test
+    public void testReplay() throws IOException, VaccineException {
+        List<Object> expected;
+        try (ConcurrentVaccines cv = open()) {
+            for (int i = 0; i < 150; i++)
+                cv.addPerson("First" + i, "Last" + i, Fixtures.ssn(i), 1930 + i % 70);
+            cv.setAgeIntervals(30, 50, 70);
+            cv.defineHub("Hub 1");
+            cv.defineHub("Hub 2");
+            cv.setStaff("Hub 1", 1, 1, 1);
+            cv.setStaff("Hub 2", 2, 1, 1);
+            cv.setHours(1, 1, 0, 0, 1, 0, 0);
+            cv.weekAllocate();
+            cv.checkpoint();
+
+            // changes after the checkpoint are only in the journal
+            for (int i = 150; i < 200; i++)
+                cv.addPerson("First" + i, "Last" + i, Fixtures.ssn(i), 1930 + i % 70);
+            Iterator<List<Map<String, List<String>>>> campaign = cv.campaign(1);
+            campaign.next();
+            campaign.next();
+            String cancelled = cv.allocatedToHub("Hub 1", 0).get(0);
+            assertTrue(cv.cancel(cancelled));
+            String booked = null;
+            for (int i = 0; i < 200 && booked == null; i++)
+                if (cv.getAppointment(Fixtures.ssn(i)) == null && !Fixtures.ssn(i).equals(cancelled))
+                    booked = Fixtures.ssn(i);
+            assertNotNull("The freed slot must be bookable", cv.book(booked, "Hub 1", 0));
+            expected = state(cv);
+        }
+        try (ConcurrentVaccines cv = open()) {
+            assertEquals(expected, state(cv));
+        }
+        try (ConcurrentVaccines cv = open()) {
+            assertEquals("Reopening must not change the state", expected, state(cv));
+        }
+    }
+
+    @Test
+    public void testCheckpointDuringBooking() throws IOException, VaccineException {
+        try (ConcurrentVaccines cv = open()) {
+            Fixtures.oneHub(cv, 2);
+
+            // two bookings in flight: slots reserved, not confirmed yet
+            Booking first = cv.reserve(FIRST, "Hub", 0);
+            Booking second = cv.reserve(SECOND, "Hub", 0);
+            assertNotNull(first);
+            assertNotNull(second);
+            cv.checkpoint();
+
+            assertEquals("09:00", cv.confirm(first, FIRST, "Hub"));
+            assertEquals("09:00", cv.book(SECOND, "Hub", 0));
+            assertNull("The second person is booked already", cv.confirm(second, SECOND, "Hub"));
+            assertEquals(Arrays.asList(2, 0, 0, 0), cv.getSlotBookings("Hub", 0));
+        }
+        try (ConcurrentVaccines cv = open()) {
+            assertEquals("Reservations must not be counted twice",
+                    Arrays.asList(2, 0, 0, 0), cv.getSlotBookings("Hub", 0));
+            assertEquals("09:00", cv.getAppointment(FIRST));
+            assertEquals("09:00", cv.getAppointment(SECOND));
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package it.polito.oop.vaccination;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Test;
+
+public final class LoadPeopleTest {
+
+    /**
+     * Several megabytes of persons, so that the file is parsed in many chunks,
+     * with duplicates, malformed lines, non ASCII names and mixed line ends.
+     */
+    private static String people() {
+        StringBuilder sb = new StringBuilder(Vaccines.HEADER).append('\n');
+        for (int i = 0; i < 120_000; i++) {
+            String ssn = Fixtures.ssn(i);
+            if (i % 1000 == 999)
+                sb.append(ssn).append(",Rossi,Mario\n");
+            else if (i % 777 == 0)
+                sb.append("RSSMRA00A00H000U,Dup,Licate,1950\r\n");
+            else if (i % 501 == 0)
+                sb.append(ssn).append(",M\u00fcller,Zo\u00eb,19").append(i % 100).append("\r");
+            else
+                sb.append(ssn).append(",Last").append(i % 97).append(",First").append(i % 89).append(',').append(1920 + i % 90).append('\n');
+        }
+        return sb.append("no year at the end,X,Y,").toString();
+    }
+
+    private static List<String> listened(Vaccines vs) {
+        List<String> events = new ArrayList<>();
+        vs.setLoadListener((line, text) -> events.add(line + ":" + text));
+        return events;
+    }
+
+    private static List<String> persons(Vaccines vs) {
+        List<String> persons = new ArrayList<>();
+        for (String interval : vs.getAgeIntervals()) {
+            Collection<String> in = vs.getInInterval(interval);
+            for (String ssn : in)
+                persons.add(vs.getPerson(ssn) + " " + vs.getAge(ssn));
+        }
+        persons.sort(null);
+        return persons;
+    }
+
+    private static void assertSameAsReader(String content) throws IOException, VaccineException {
+        Path file = Files.createTempFile("people", ".csv");
+        try {
+            Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+            assertTrue(Files.size(file) > 4 << 20);
+
+            Vaccines expected = new Vaccines();
+            List<String> expectedEvents = listened(expected);
+            long expectedCount = expected.loadPeople(new StringReader(content));
+            expected.setAgeIntervals(40, 70);
+            assertTrue("Malformed lines must be notified", expectedEvents.size() > 100);
+
+            for (boolean offHeap : new boolean[] { false, true }) {
+                Vaccines actual = new Vaccines(offHeap);
+                List<String> actualEvents = listened(actual);
+                assertEquals(expectedCount, actual.loadPeople(file));
+                actual.setAgeIntervals(40, 70);
+                assertEquals(expected.countPeople(), actual.countPeople());
+                assertEquals("Errors must be notified in line order", expectedEvents, actualEvents);
+                assertEquals(persons(expected), persons(actual));
+            }
+
+            try (FileChannel channel = FileChannel.open(file)) {
+                PeopleFileLoader loader = new PeopleFileLoader(channel);
+                assertEquals(Vaccines.HEADER, loader.header());
+                int[] chunks = { 0 };
+                loader.body(chunk -> chunks[0]++);
+                assertTrue("The file must be parsed in several chunks", chunks[0] > 1);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testFileSameAsReader() throws IOException, VaccineException {
+        assertSameAsReader(people());
+    }
+
+    @Test
+    public void testCarriageReturnsOnly() throws IOException, VaccineException {
+        assertSameAsReader(people().replace("\r\n", "\r").replace('\n', '\r'));
+    }
+
+    @Test
+    public void testLineTooLong() throws IOException, VaccineException {
+        Path file = Files.createTempFile("people", ".csv");
+        try {
+            byte[] line = new byte[(1 << 24) + 1];
+            Arrays.fill(line, (byte) 'A');
+            Files.write(file, (Vaccines.HEADER + "\nRSSMRA40A01H501U,Rossi,Mario,1940\r").getBytes(StandardCharsets.UTF_8));
+            Files.write(file, line, StandardOpenOption.APPEND);
+            Vaccines vs = new Vaccines();
+            try {
+                vs.loadPeople(file);
+                fail("A line over the chunk limit must be refused");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("longer than"));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testBadHeader() throws IOException {
+        Path file = Files.createTempFile("people", ".csv");
+        try {
+            Files.write(file, "SSN,FIRST,LAST,YEAR\nRSSMRA40A01H501U,Rossi,Mario,1940\n".getBytes(StandardCharsets.UTF_8));
+            Vaccines vs = new Vaccines();
+            List<String> events = listened(vs);
+            try {
+                vs.loadPeople(file);
+                fail("Header error expected");
+            } catch (VaccineException e) {
+                assertEquals(0, vs.countPeople());
+                assertEquals(1, events.size());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package it.polito.oop.vaccination;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+public final class PlanExportTest {
+
+    private static byte[] export(Vaccines vs) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        vs.exportPlan(Channels.newChannel(bytes));
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void testParallelExport() throws IOException, VaccineException {
+        Vaccines vs = Fixtures.planned(false, 20_000);
+        Path dir = Files.createTempDirectory("plan");
+        try {
+            vs.exportPlan(dir.resolve("1"), 1);
+            vs.exportPlan(dir.resolve("4"), 4);
+            List<Path> files;
+            try (Stream<Path> list = Files.list(dir.resolve("1"))) {
+                files = list.sorted().collect(Collectors.toList());
+            }
+            assertEquals("One file per hub", 2, files.size());
+            for (Path file : files)
+                assertArrayEquals(file.getFileName().toString(), Files.readAllBytes(file),
+                        Files.readAllBytes(dir.resolve("4").resolve(file.getFileName())));
+        } finally {
+            Fixtures.delete(dir);
+        }
+    }
+
+    @Test
+    public void testRepeatedExports() throws IOException, VaccineException {
+        Vaccines vs = Fixtures.planned(true, 20_000);
+        byte[] first = export(vs);
+        assertEquals(vs.allocatedToHub("Hub 1", 0).get(0), new String(first, "UTF-8").split("\n")[1].split(",")[2]);
+        for (int i = 0; i < 200; i++)
+            assertArrayEquals("Export " + i, first, export(vs));
+    }
+}
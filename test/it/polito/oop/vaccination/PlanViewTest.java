@@ -0,0 +1,95 @@
+package it.polito.oop.vaccination;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public final class PlanViewTest {
+    private static void assertSameAsSystem(Vaccines vs, PlanView view) {
+        for (int i = 0; i < 2000; i++)
+            assertEquals(Fixtures.ssn(i), vs.getAppointment(Fixtures.ssn(i)), view.appointment(Fixtures.ssn(i)));
+        assertEquals(vs.getAppointment(Fixtures.RAW), view.appointment(Fixtures.RAW));
+        for (String hub : vs.getHubs())
+            for (int d = 0; d < 7; d++) {
+                List<String> allocated = new ArrayList<>(vs.allocatedToHub(hub, d));
+                allocated.sort(null);
+                assertEquals(hub + " " + d, allocated, view.allocated(hub, d));
+                StringBuilder lines = new StringBuilder();
+                for (String ssn : allocated) {
+                    lines.append(ssn).append('\n');
+                    assertEquals(hub, view.hub(ssn));
+                    assertEquals(d, view.day(ssn));
+                }
+                ByteBuffer serialized = view.serialized(hub, d);
+                byte[] bytes = new byte[serialized.remaining()];
+                serialized.get(bytes);
+                assertEquals(lines.toString(), new String(bytes, StandardCharsets.UTF_8));
+            }
+    }
+
+    @Test
+    public void testView() throws VaccineException {
+        Vaccines vs = Fixtures.planned(false, 2000);
+        assertTrue("Some persons must be left out", vs.propAllocated() < 1);
+        assertSameAsSystem(vs, vs.freezePlan());
+    }
+
+    @Test
+    public void testFrozen() throws VaccineException {
+        Vaccines vs = Fixtures.planned(false, 2000);
+        PlanView view = vs.freezePlan();
+        String ssn = vs.allocatedToHub("Hub 1", 0).get(0);
+        List<String> monday = view.allocated("Hub 1", 0);
+        String appointment = view.appointment(ssn);
+
+        assertTrue(vs.cancel(ssn));
+        vs.clearAllocation();
+        assertEquals("Hub 1", view.hub(ssn));
+        assertEquals(0, view.day(ssn));
+        assertEquals(appointment, view.appointment(ssn));
+        assertSame("The view must not copy", monday, view.allocated("Hub 1", 0));
+
+        PlanView cleared = vs.freezePlan();
+        assertNull(cleared.hub(ssn));
+        assertEquals(-1, cleared.day(ssn));
+        assertTrue(cleared.allocated("Hub 1", 0).isEmpty());
+    }
+
+    @Test
+    public void testUnknown() throws VaccineException {
+        PlanView view = Fixtures.planned(false, 2000).freezePlan();
+        assertNull(view.hub("RSSMRA99A99H999U"));
+        assertNull(view.appointment("unknown person"));
+        assertTrue(view.allocated("Hub 3", 0).isEmpty());
+        assertTrue(view.allocated("Hub 1", 7).isEmpty());
+        assertEquals(0, view.serialized("Hub 3", 0).remaining());
+    }
+
+    @Test
+    public void testLiveView() throws VaccineException {
+        ConcurrentVaccines cv = Fixtures.oneHub(new ConcurrentVaccines(), 50);
+        PlanView before = cv.planView();
+        assertSame("Views are shared until the next planning", before, cv.planView());
+        assertEquals("09:00", cv.book(Fixtures.ssn(7), "Hub", 0));
+        assertSame("Live bookings are not in the view", before, cv.planView());
+        assertNull(before.appointment(Fixtures.ssn(7)));
+
+        cv.weekAllocate();
+        PlanView planned = cv.planView();
+        assertNotSame(before, planned);
+        assertEquals(cv.getAppointment(Fixtures.ssn(7)), planned.appointment(Fixtures.ssn(7)));
+        assertEquals(cv.allocatedToHub("Hub", 0).size(), planned.allocated("Hub", 0).size());
+        assertEquals("The calendar must not be overbooked",
+                Arrays.asList(3, 3, 2, 2), cv.getSlotBookings("Hub", 0));
+    }
+}
@@ -0,0 +1,116 @@
+package it.polito.oop.vaccination;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public final class PopulationTest {
+    /** More than a page, so that the stores grow past the first one. */
+    private static final int COUNT = Population.PAGE_SIZE + 1000;
+
+    private static Population populated(Population p) {
+        for (int i = 0; i < COUNT; i++)
+            assertEquals(i, p.add("First" + i % 3000, "Last" + i % 7, Fixtures.ssn(i), 1900 + i % 120));
+        assertEquals(COUNT, p.add("Zo\u00eb", "M\u00fcller", Fixtures.RAW, 1950));
+        return p;
+    }
+
+    private static void checkStore(Population p) {
+        assertEquals(COUNT + 1, p.size());
+        for (int i = 0; i < COUNT; i += 7) {
+            assertEquals(i, p.id(Fixtures.ssn(i)));
+            assertEquals(Fixtures.ssn(i), p.ssn(i));
+            assertEquals("First" + i % 3000, p.first(i));
+            assertEquals("Last" + i % 7, p.last(i));
+            assertEquals(1900 + i % 120, p.year(i));
+            assertFalse(p.allocated(i));
+        }
+        assertEquals(COUNT, p.id(Fixtures.RAW));
+        assertEquals(Fixtures.RAW, p.ssn(COUNT));
+        assertEquals("Zo\u00eb", p.first(COUNT));
+        assertEquals("M\u00fcller", p.last(COUNT));
+        assertEquals(-1, p.id("RSSMRA99A99H999U"));
+        assertEquals("Duplicates must be rejected", -1, p.add("X", "Y", Fixtures.ssn(5), 2000));
+        assertEquals(-1, p.add("X", "Y", Fixtures.RAW, 2000));
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i <= COUNT; i++)
+            expected.add(p.ssn(i));
+        expected.sort(null);
+        List<String> sorted = new ArrayList<>();
+        for (int id : p.sorted())
+            sorted.add(p.ssn(id));
+        assertEquals(expected, sorted);
+    }
+
+    @Test
+    public void testHeapStore() {
+        checkStore(populated(new HeapPopulation()));
+    }
+
+    @Test
+    public void testOffHeapStore() {
+        checkStore(populated(new OffHeapPopulation()));
+    }
+
+    private static void checkEpochs(Population p) {
+        p.allocate(3, 2, 5);
+        assertTrue(p.allocated(3));
+        assertEquals(2, p.hub(3));
+        assertEquals(5, p.day(3));
+        assertEquals(1, p.countAllocated());
+        p.allocate(3, 1, 2);
+        assertEquals("Reallocating must not count twice", 1, p.countAllocated());
+        assertEquals(2, p.day(3));
+
+        p.clearAllocation();
+        assertFalse(p.allocated(3));
+        assertEquals(0, p.countAllocated());
+        p.allocate(4, 0, 0);
+        for (int e = 0; e < p.maxEpoch(); e++)
+            p.clearAllocation();
+        assertFalse("Epoch tags must not come back when they wrap", p.allocated(4));
+        assertFalse(p.allocated(3));
+    }
+
+    @Test
+    public void testHeapEpochs() {
+        checkEpochs(populated(new HeapPopulation()));
+    }
+
+    @Test
+    public void testOffHeapEpochs() {
+        checkEpochs(populated(new OffHeapPopulation()));
+    }
+
+    private static void checkCalendars(Population p) {
+        p.allocate(3, 2, 5);
+        p.setSlot(3, 7);
+        assertEquals(7, p.slot(3));
+        assertTrue(p.holdsSlot(3));
+
+        p.newCalendar();
+        assertTrue(p.allocated(3));
+        assertFalse("The slot belongs to the previous calendar", p.holdsSlot(3));
+        p.setSlot(3, 7);
+        assertTrue(p.holdsSlot(3));
+        for (int c = 0; c < Population.MAX_CALENDAR; c++)
+            p.newCalendar();
+        assertFalse("Calendar tags must not come back when they wrap", p.holdsSlot(3));
+    }
+
+    @Test
+    public void testHeapCalendars() {
+        checkCalendars(populated(new HeapPopulation()));
+    }
+
+    @Test
+    public void testOffHeapCalendars() {
+        checkCalendars(populated(new OffHeapPopulation()));
+    }
+}
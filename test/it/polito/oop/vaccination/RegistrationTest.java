@@ -0,0 +1,102 @@
+package it.polito.oop.vaccination;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+public final class RegistrationTest {
+    private static final int COUNT = 30_000;
+    private static final int THREADS = 8;
+
+    /**
+     * Registers {@link #COUNT} persons plus one whose SSN cannot be packed,
+     * every SSN from two threads at once, with names new to the system.
+     */
+    private static void register(ConcurrentVaccines cv) throws InterruptedException {
+        AtomicIntegerArray added = new AtomicIntegerArray(COUNT + 1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int mine = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i <= COUNT; i++) {
+                    int owner = i % THREADS;
+                    if ((owner == mine || (owner + 1) % THREADS == mine) && add(cv, i))
+                        added.incrementAndGet(i);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread t : threads)
+            t.join();
+        for (int i = 0; i <= COUNT; i++)
+            assertEquals("Exactly one registration of " + i + " must succeed", 1, added.get(i));
+        assertEquals(COUNT + 1, cv.countPeople());
+    }
+
+    private static boolean add(ConcurrentVaccines cv, int i) {
+        if (i == COUNT)
+            return cv.addPerson("Zo\u00eb", "M\u00fcller", Fixtures.RAW, 1950);
+        return cv.addPerson("First" + i % 3000, "Last" + i % 101, Fixtures.ssn(i), 1920 + i % 90);
+    }
+
+    private static void checkRegistered(ConcurrentVaccines cv) throws VaccineException {
+        Vaccines expected = new Vaccines();
+        for (int i = 0; i < COUNT; i++)
+            expected.addPerson("First" + i % 3000, "Last" + i % 101, Fixtures.ssn(i), 1920 + i % 90);
+        expected.addPerson("Zo\u00eb", "M\u00fcller", Fixtures.RAW, 1950);
+        for (int i = 0; i < COUNT; i += 7)
+            assertEquals(expected.getPerson(Fixtures.ssn(i)), cv.getPerson(Fixtures.ssn(i)));
+        assertEquals(expected.getPerson(Fixtures.RAW), cv.getPerson(Fixtures.RAW));
+
+        expected.setAgeIntervals(30, 60);
+        cv.setAgeIntervals(30, 60);
+        for (String interval : expected.getAgeIntervals())
+            assertEquals(expected.getInInterval(interval).size(), cv.getInInterval(interval).size());
+    }
+
+    @Test
+    public void testHeap() throws InterruptedException, VaccineException {
+        ConcurrentVaccines cv = new ConcurrentVaccines(false);
+        register(cv);
+        checkRegistered(cv);
+    }
+
+    @Test
+    public void testOffHeap() throws InterruptedException, VaccineException {
+        ConcurrentVaccines cv = new ConcurrentVaccines(true);
+        register(cv);
+        checkRegistered(cv);
+    }
+
+    @Test
+    public void testJournaled() throws IOException, InterruptedException, VaccineException {
+        Path dir = Files.createTempDirectory("registrations");
+        try {
+            Path snapshot = dir.resolve("vaccines.snapshot");
+            Path journal = dir.resolve("vaccines.journal");
+            List<String> registered = new ArrayList<>();
+            try (ConcurrentVaccines cv = ConcurrentVaccines.open(snapshot, journal, false)) {
+                register(cv);
+                cv.setAgeIntervals(30, 60);
+                for (String interval : cv.getAgeIntervals())
+                    registered.addAll(cv.getInInterval(interval));
+            }
+            try (ConcurrentVaccines cv = ConcurrentVaccines.open(snapshot, journal, false)) {
+                assertEquals(COUNT + 1, cv.countPeople());
+                List<String> replayed = new ArrayList<>();
+                for (String interval : cv.getAgeIntervals())
+                    replayed.addAll(cv.getInInterval(interval));
+                assertEquals("Replay must give the persons the same ids", registered, replayed);
+            }
+        } finally {
+            Fixtures.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package it.polito.oop.vaccination;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public final class SnapshotTest {
+
+    @Test
+    public void testReservationNotSaved() throws IOException, VaccineException {
+        Vaccines vs = Fixtures.oneHub(2);
+        assertEquals("09:00", vs.book(Fixtures.ssn(0), "Hub", 0));
+        Booking pending = vs.reserve(Fixtures.ssn(1), "Hub", 0);
+        assertNotNull(pending);
+        assertEquals(Arrays.asList(2, 0, 0, 0), vs.getSlotBookings("Hub", 0));
+
+        Path file = Files.createTempFile("vaccines", ".snapshot");
+        try {
+            vs.saveSnapshot(file);
+            Vaccines restored = Vaccines.restoreSnapshot(file);
+            assertEquals("Only the confirmed booking must be saved",
+                    Arrays.asList(1, 0, 0, 0), restored.getSlotBookings("Hub", 0));
+            assertEquals("09:00", restored.getAppointment(Fixtures.ssn(0)));
+        } finally {
+            Files.delete(file);
+        }
+
+        vs.confirm(pending);
+        assertEquals("09:00", vs.getAppointment(Fixtures.ssn(1)));
+        assertEquals(Arrays.asList(2, 0, 0, 0), vs.getSlotBookings("Hub", 0));
+    }
+
+    private static void assertSame(Vaccines expected, Vaccines actual) {
+        assertEquals(expected.countPeople(), actual.countPeople());
+        for (String interval : expected.getAgeIntervals()) {
+            for (String ssn : expected.getInInterval(interval)) {
+                assertEquals(expected.getPerson(ssn), actual.getPerson(ssn));
+                assertEquals(expected.getAppointment(ssn), actual.getAppointment(ssn));
+            }
+        }
+        assertEquals(expected.getAgeIntervals(), actual.getAgeIntervals());
+        assertEquals(expected.getAvailable(), actual.getAvailable());
+        for (String hub : expected.getHubs()) {
+            for (int d = 0; d < 7; d++) {
+                assertEquals(expected.allocatedToHub(hub, d), actual.allocatedToHub(hub, d));
+                assertEquals(expected.getSlotBookings(hub, d), actual.getSlotBookings(hub, d));
+            }
+        }
+        assertEquals(expected.propAllocatedAge(), actual.propAllocatedAge());
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException, VaccineException {
+        for (boolean offHeap : new boolean[] { false, true }) {
+            Vaccines vs = Fixtures.planned(offHeap, 5000);
+            Path file = Files.createTempFile("vaccines", ".snapshot");
+            try {
+                vs.saveSnapshot(file);
+                Vaccines restored = Vaccines.restoreSnapshot(file, offHeap);
+                assertSame(vs, restored);
+                assertTrue(restored.getPerson(Fixtures.RAW).endsWith("Zo\u00eb"));
+
+                // names are looked up again once new persons are added
+                for (Vaccines v : Arrays.asList(vs, restored)) {
+                    assertTrue(v.addPerson("First1", "Last1", "BNCNNA45B41H501X", 1945));
+                    assertTrue(v.addPerson("Zo\u00eb", "Nuovo", "VRDGPP50C01H501Z", 1950));
+                    assertFalse(v.addPerson("Mario", "Rossi", Fixtures.RAW, 1950));
+                }
+                assertEquals(vs.persons.nameCount(), restored.persons.nameCount());
+                int id = restored.persons.id("BNCNNA45B41H501X");
+                assertEquals(restored.persons.firstCode(restored.persons.id(Fixtures.ssn(1))), restored.persons.firstCode(id));
+                assertSame(vs, restored);
+
+                List<Map<String, List<String>>> week = vs.weekAllocate();
+                assertEquals(week, restored.weekAllocate());
+            } finally {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package it.polito.oop.vaccination;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public final class SsnCodecTest {
+    private static final String[] PACKED = { "", "0", "00", "A", "Z", "9", "RSSMRA40A01H501U", "RSSMRA40A01H501V",
+            "ZZZZZZZZZZZZZZZZ" };
+
+    @Test
+    public void testRoundTrip() {
+        for (String s : PACKED) {
+            long hi = SsnCodec.hi(s);
+            assertTrue(s, hi != SsnCodec.UNPACKED);
+            assertEquals(s, SsnCodec.decode(hi, SsnCodec.lo(s)));
+        }
+    }
+
+    @Test
+    public void testOrder() {
+        for (String a : PACKED)
+            for (String b : PACKED)
+                assertEquals(a + " " + b, Integer.signum(a.compareTo(b)),
+                        Integer.signum(SsnCodec.compare(SsnCodec.hi(a), SsnCodec.lo(a), SsnCodec.hi(b), SsnCodec.lo(b))));
+    }
+
+    @Test
+    public void testUnpacked() {
+        for (String s : Arrays.asList("rssmra40a01h501u", "RSSMRA40A01H501U0", "RSS-MRA", Fixtures.RAW))
+            assertEquals(s, SsnCodec.UNPACKED, SsnCodec.hi(s));
+    }
+}
@@ -0,0 +1,34 @@
+package it.polito.oop.vaccination;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public final class WeekAllocateTest {
+
+    private static Vaccines system() throws VaccineException {
+        Vaccines vs = new Vaccines();
+        for (int i = 0; i < 20_000; i++)
+            vs.addPerson("First" + i, "Last" + i, Fixtures.ssn(i), 1920 + i % 90);
+        vs.setAgeIntervals(20, 40, 60, 80);
+        for (int h = 0; h < 6; h++) {
+            vs.defineHub("Hub " + h);
+            vs.setStaff("Hub " + h, 2 + h, 3, 1 + h % 2);
+        }
+        vs.setHours(8, 8, 8, 8, 8, 4, 2);
+        return vs;
+    }
+
+    @Test
+    public void testParallelSameAsSequential() throws VaccineException {
+        Vaccines vs = system();
+        List<Map<String, List<String>>> expected = vs.weekAllocate();
+        for (int parallelism : new int[] { 2, 4, 1, 3 }) {
+            vs.clearAllocation();
+            assertEquals("parallelism " + parallelism, expected, vs.weekAllocate(parallelism));
+        }
+    }
+}